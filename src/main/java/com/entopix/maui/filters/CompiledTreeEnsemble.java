@@ -0,0 +1,342 @@
+package com.entopix.maui.filters;
+
+import java.lang.reflect.Field;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.IteratedSingleClassifierEnhancer;
+import weka.classifiers.meta.Bagging;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.Distribution;
+import weka.classifiers.trees.j48.NoSplit;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A trained J48 tree, or a Bagging ensemble of them, compiled into arrays of
+ * primitives that score feature values without creating Weka instances.
+ *
+ * The nodes of all trees share the same arrays, and the children of a node
+ * are numbered consecutively. A leaf stores the offset of its class
+ * probabilities instead of its first child. Missing values are spread over
+ * the children by their share of the training instances, and a child that
+ * had no training instances has the probabilities of its parent, both as in
+ * ClassifierTree, so the probabilities are the same as those of the
+ * classifier down to the last bit.
+ */
+public class CompiledTreeEnsemble {
+
+	/** attribute of a leaf */
+	private static final int LEAF = -1;
+
+	private final int numClasses;
+
+	/** whether the trees vote like Bagging, or there is a single tree */
+	private final boolean bagged;
+
+	private final int[] roots;
+
+	/** attribute tested by a node, LEAF for leaves */
+	private final int[] attributes;
+
+	/** split point of a node, NaN if the attribute is nominal and its value is the branch */
+	private final double[] splitPoints;
+
+	/** first child of a node, or the offset of the probabilities of a leaf */
+	private final int[] children;
+
+	private final int[] numChildren;
+
+	/** share of the training instances of the parent that went to a node */
+	private final double[] missingWeights;
+
+	/** nodes without training instances, which missing values skip */
+	private final boolean[] empty;
+
+	private final double[] probabilities;
+
+	private int numNodes = 0;
+
+	private int numLeaves = 0;
+
+	private CompiledTreeEnsemble(ClassifierTree[] trees, boolean bagged,
+			int numClasses, Instances header) throws ReflectiveOperationException {
+		this.bagged = bagged;
+		this.numClasses = numClasses;
+
+		int nodes = 0;
+		int leaves = 0;
+		for (ClassifierTree tree : trees) {
+			int[] counts = count(tree);
+			nodes += counts[0];
+			leaves += counts[1];
+		}
+		roots = new int[trees.length];
+		attributes = new int[nodes];
+		splitPoints = new double[nodes];
+		children = new int[nodes];
+		numChildren = new int[nodes];
+		missingWeights = new double[nodes];
+		empty = new boolean[nodes];
+		probabilities = new double[leaves * numClasses];
+
+		for (int i = 0; i < trees.length; i++) {
+			roots[i] = numNodes++;
+			add(trees[i], roots[i], header);
+		}
+	}
+
+	/**
+	 * Compiles a J48 tree or a Bagging ensemble of J48 trees with a nominal
+	 * class.
+	 *
+	 * @param classifier the trained classifier
+	 * @param header the instances the classifier was trained on, or their header
+	 * @return the compiled classifier, or null if it cannot be compiled
+	 */
+	public static CompiledTreeEnsemble compile(Classifier classifier, Instances header) {
+		if (classifier == null || header == null || header.classIndex() < 0
+				|| !header.classAttribute().isNominal()) {
+			return null;
+		}
+		try {
+			if (classifier.getClass() == J48.class) {
+				ClassifierTree tree = getRoot((J48) classifier);
+				if (tree == null) {
+					return null;
+				}
+				return new CompiledTreeEnsemble(new ClassifierTree[] {tree}, false,
+						header.numClasses(), header);
+			}
+			if (classifier.getClass() == Bagging.class) {
+				Bagging bagging = (Bagging) classifier;
+				Classifier[] members = (Classifier[]) getField(bagging,
+						IteratedSingleClassifierEnhancer.class, "m_Classifiers");
+				if (members == null || members.length < bagging.getNumIterations()) {
+					return null;
+				}
+				ClassifierTree[] trees = new ClassifierTree[bagging.getNumIterations()];
+				for (int i = 0; i < trees.length; i++) {
+					if (members[i] == null || members[i].getClass() != J48.class) {
+						return null;
+					}
+					trees[i] = getRoot((J48) members[i]);
+					if (trees[i] == null) {
+						return null;
+					}
+				}
+				return new CompiledTreeEnsemble(trees, true, header.numClasses(), header);
+			}
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		} catch (UnsupportedOperationException e) {
+			return null;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the tree of a J48 classifier, or null if it does not compute
+	 * plain probabilities.
+	 */
+	private static ClassifierTree getRoot(J48 j48) throws ReflectiveOperationException {
+		if (j48.getUseLaplace()) {
+			return null;
+		}
+		return (ClassifierTree) getField(j48, J48.class, "m_root");
+	}
+
+	private static Object getField(Object object, Class<?> declaringClass, String name)
+			throws ReflectiveOperationException {
+		Field field = declaringClass.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(object);
+	}
+
+	/**
+	 * Returns the number of nodes and leaves of a tree.
+	 */
+	private static int[] count(ClassifierTree tree) throws ReflectiveOperationException {
+		int[] counts = {1, 0};
+		if ((Boolean) getField(tree, ClassifierTree.class, "m_isLeaf")) {
+			counts[1]++;
+		} else {
+			ClassifierTree[] sons = (ClassifierTree[]) getField(tree, ClassifierTree.class, "m_sons");
+			for (ClassifierTree son : sons) {
+				// an empty son is a leaf with the probabilities of the split
+				if ((Boolean) getField(son, ClassifierTree.class, "m_isEmpty")) {
+					counts[0]++;
+					counts[1]++;
+				} else {
+					int[] sonCounts = count(son);
+					counts[0] += sonCounts[0];
+					counts[1] += sonCounts[1];
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Stores a tree at a node, and its sons at the nodes after those
+	 * already used.
+	 */
+	private void add(ClassifierTree tree, int node, Instances header) throws ReflectiveOperationException {
+		ClassifierSplitModel model = (ClassifierSplitModel) getField(tree,
+				ClassifierTree.class, "m_localModel");
+		if ((Boolean) getField(tree, ClassifierTree.class, "m_isLeaf")) {
+			if (model.getClass() != NoSplit.class) {
+				throw new UnsupportedOperationException("Leaf model " + model.getClass().getName());
+			}
+			addLeaf(node, model, -1);
+			return;
+		}
+		if (model.getClass() != C45Split.class) {
+			throw new UnsupportedOperationException("Split model " + model.getClass().getName());
+		}
+		ClassifierTree[] sons = (ClassifierTree[]) getField(tree, ClassifierTree.class, "m_sons");
+		C45Split split = (C45Split) model;
+		if (split.numSubsets() != sons.length) {
+			throw new UnsupportedOperationException("Split with " + split.numSubsets()
+					+ " subsets and " + sons.length + " sons");
+		}
+		attributes[node] = split.attIndex();
+		splitPoints[node] = header.attribute(split.attIndex()).isNominal() ? Double.NaN
+				: (Double) getField(split, C45Split.class, "m_splitPoint");
+		children[node] = numNodes;
+		numChildren[node] = sons.length;
+		numNodes += sons.length;
+
+		Distribution distribution = split.distribution();
+		for (int i = 0; i < sons.length; i++) {
+			int child = children[node] + i;
+			missingWeights[child] = distribution.perBag(i) / distribution.total();
+			if ((Boolean) getField(sons[i], ClassifierTree.class, "m_isEmpty")) {
+				empty[child] = true;
+				addLeaf(child, split, i);
+			} else {
+				add(sons[i], child, header);
+			}
+		}
+	}
+
+	private void addLeaf(int node, ClassifierSplitModel model, int subset) throws ReflectiveOperationException {
+		attributes[node] = LEAF;
+		children[node] = numLeaves * numClasses;
+		for (int c = 0; c < numClasses; c++) {
+			try {
+				// the instance is only used for other subsets and split models
+				probabilities[children[node] + c] = model.classProb(c, null, subset);
+			} catch (Exception e) {
+				throw new UnsupportedOperationException(e);
+			}
+		}
+		numLeaves++;
+	}
+
+	/**
+	 * Returns the probability of a class for feature values in the order of
+	 * the attributes the classifier was trained on, with NaN for missing
+	 * values, as distributionForInstance of the classifier would.
+	 */
+	public double probability(double[] features, int classIndex) {
+		if (!bagged) {
+			return probability(roots[0], classIndex, features, 1);
+		}
+		double total = 0;
+		double classSum = 0;
+		if (numClasses == 2) {
+			// Walk every tree once for both classes, unless a value is missing
+			double sum0 = 0;
+			double sum1 = 0;
+			for (int root : roots) {
+				int leaf = findLeaf(root, features);
+				if (leaf == LEAF) {
+					sum0 += probability(root, 0, features, 1);
+					sum1 += probability(root, 1, features, 1);
+				} else {
+					sum0 += probabilities[children[leaf]];
+					sum1 += probabilities[children[leaf] + 1];
+				}
+			}
+			total = sum0 + sum1;
+			classSum = classIndex == 0 ? sum0 : sum1;
+		} else {
+			for (int c = 0; c < numClasses; c++) {
+				double sum = 0;
+				for (int root : roots) {
+					sum += probability(root, c, features, 1);
+				}
+				total += sum;
+				if (c == classIndex) {
+					classSum = sum;
+				}
+			}
+		}
+		// Bagging only normalizes sums that are not 0
+		if (Utils.eq(total, 0)) {
+			return classSum;
+		}
+		if (Double.isNaN(total)) {
+			throw new IllegalArgumentException("Can't normalize array. Sum is NaN.");
+		}
+		return classSum / total;
+	}
+
+	/**
+	 * Returns the leaf that the feature values reach from a node, or LEAF if
+	 * a value on the way is missing.
+	 */
+	private int findLeaf(int node, double[] features) {
+		while (attributes[node] != LEAF) {
+			double value = features[attributes[node]];
+			if (Instance.isMissingValue(value)) {
+				return LEAF;
+			}
+			node = branch(node, value);
+		}
+		return node;
+	}
+
+	private int branch(int node, double value) {
+		double splitPoint = splitPoints[node];
+		if (Double.isNaN(splitPoint)) {
+			return children[node] + (int) value;
+		}
+		return children[node] + (Utils.smOrEq(value, splitPoint) ? 0 : 1);
+	}
+
+	private double probability(int node, int classIndex, double[] features, double weight) {
+		while (attributes[node] != LEAF) {
+			double value = features[attributes[node]];
+			if (Instance.isMissingValue(value)) {
+				double prob = 0;
+				for (int child = children[node]; child < children[node] + numChildren[node]; child++) {
+					if (!empty[child]) {
+						prob += probability(child, classIndex, features, missingWeights[child] * weight);
+					}
+				}
+				return prob;
+			}
+			node = branch(node, value);
+		}
+		return weight * probabilities[children[node] + classIndex];
+	}
+
+	public int numTrees() {
+		return roots.length;
+	}
+
+	public int numNodes() {
+		return numNodes;
+	}
+
+	public int numLeaves() {
+		return numLeaves;
+	}
+}
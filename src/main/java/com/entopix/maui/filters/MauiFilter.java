@@ -18,20 +18,33 @@ package com.entopix.maui.filters;
  *    along with this program; if not, write to the Free Software
  *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
  */
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.entopix.maui.stemmers.PorterStemmer;
 import com.entopix.maui.stemmers.Stemmer;
 import com.entopix.maui.stopwords.Stopwords;
 import com.entopix.maui.stopwords.StopwordsEnglish;
 import com.entopix.maui.util.Candidate;
+import com.entopix.maui.util.CountMinSketch;
 import com.entopix.maui.util.Counter;
+import com.entopix.maui.util.MauiDocument;
+import com.entopix.maui.util.StringIntMap;
+import com.entopix.maui.util.Topic;
+import com.entopix.maui.vocab.PhraseIndex;
 import com.entopix.maui.vocab.Vocabulary;
 import com.entopix.maui.wikifeatures.WikiFeatures;
 
@@ -48,6 +61,7 @@ import weka.core.Capabilities.Capability;
 import weka.filters.Filter;
 import weka.classifiers.Classifier;
 import weka.classifiers.meta.Bagging;
+import weka.classifiers.trees.J48;
 
 /**
  * This filter converts the incoming data into data appropriate for keyphrase
@@ -70,12 +84,18 @@ import weka.classifiers.meta.Bagging;
  * @author Eibe Frank (eibe@cs.waikato.ac.nz), zelandiya (medelyan@gmail.com)
  * @version 2.0
  */
-public class MauiFilter extends Filter {
+public class MauiFilter extends Filter implements Cloneable {
 
 	private static final Logger log = LoggerFactory.getLogger(MauiFilter.class);
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Maximum number of phrases whose normalized forms are remembered
+	 * while extracting the candidates of a document
+	 */
+	private static final int MAX_CACHED_FORMS = 100000;
+
 	/**
 	 * Index of attribute containing the name of the file
 	 */
@@ -116,6 +136,25 @@ public class MauiFilter extends Filter {
 	 */
 	private boolean debugMode = false;
 
+	/**
+	 * Number of threads used while building the model
+	 */
+	private int numThreads = 1;
+
+	/**
+	 * Number of top ranked candidates output for every document that is
+	 * converted after the model has been built, 0 for all candidates.
+	 * Not part of the model.
+	 */
+	private transient int topicsPerDocument = 0;
+
+	/**
+	 * Number of candidates of a document that are scored by the classifier
+	 * after the model has been built, 0 for all candidates. Not part of the
+	 * model.
+	 */
+	private transient int candidateBudget = 0;
+
 	/**
 	 * The minimum number of occurences of a phrase
 	 */
@@ -206,18 +245,64 @@ public class MauiFilter extends Filter {
 	 */
 	private Classifier classifier = null;
 
+	/**
+	 * The classifier compiled into compiledClassifier, which is null if it
+	 * cannot be compiled. Not saved with the model.
+	 */
+	private transient volatile Classifier compiledFrom = null;
+
+	private transient volatile CompiledTreeEnsemble compiledClassifier = null;
+
 	/**
 	 * The dictionary containing the document frequencies
 	 */
-	public HashMap<String, Counter> globalDictionary = null;
+	private StringIntMap documentFrequencies = null;
 
 	/**
 	 * The dictionary containing the keyphrases
 	 */
+	private StringIntMap keyphraseFrequencies = null;
+
+	/**
+	 * Candidates that appear in fewer training documents are pruned from
+	 * the global dictionary
+	 */
+	private int minDocumentFrequency = 1;
+
+	/**
+	 * Maximum number of candidates kept in the global dictionary, the most
+	 * frequent ones, or 0 for no limit
+	 */
+	private int maxDictionarySize = 0;
+
+	/**
+	 * Width and depth of the sketch that keeps approximate document
+	 * frequencies of pruned candidates, no sketch if the width is 0
+	 */
+	private int sketchWidth = 0;
+	private int sketchDepth = 4;
+
+	/**
+	 * Approximate document frequencies of the candidates pruned from the
+	 * global dictionary
+	 */
+	private CountMinSketch documentFrequencySketch = null;
+
+	/**
+	 * The dictionaries of models saved before they were kept in
+	 * StringIntMaps, only set while such a model is deserialized
+	 */
+	private HashMap<String, Counter> globalDictionary = null;
 	private HashMap<String, Counter> keyphraseDictionary = null;
 
 	transient HashMap<Instance, HashMap<String, Candidate>> allCandidates = null;
 
+	/**
+	 * Skip converting the training documents into output instances when the
+	 * model is built, only affects building and is not saved with the model
+	 */
+	private transient boolean trainingOnly = false;
+
 	/**
 	 * The number of documents in the global frequencies corpus
 	 */
@@ -334,6 +419,32 @@ public class MauiFilter extends Filter {
 		this.minPhraseLength = minPhraseLength;
 	}
 
+	/**
+	 * Prunes candidates that appear in fewer training documents from the
+	 * global dictionary. Pruned candidates count as unseen when computing
+	 * IDF, unless a sketch is used.
+	 */
+	public void setMinDocumentFrequency(int minDocumentFrequency) {
+		this.minDocumentFrequency = minDocumentFrequency;
+	}
+
+	/**
+	 * Keeps at most the given number of the most frequent candidates in the
+	 * global dictionary, 0 for no limit.
+	 */
+	public void setMaxDictionarySize(int maxDictionarySize) {
+		this.maxDictionarySize = maxDictionarySize;
+	}
+
+	/**
+	 * Keeps the document frequencies of pruned candidates in a count-min
+	 * sketch of the given width and depth, or drops them if the width is 0.
+	 */
+	public void setSketchSize(int sketchWidth, int sketchDepth) {
+		this.sketchWidth = sketchWidth;
+		this.sketchDepth = sketchDepth;
+	}
+
 	public void setDocumentLanguage(String documentLanguage) {
 		this.documentLanguage = documentLanguage;
 	}
@@ -342,6 +453,53 @@ public class MauiFilter extends Filter {
 		this.debugMode = debugMode;
 	}
 
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Limits the output of every document converted through the input and
+	 * output queue after the model has been built to its top ranked
+	 * candidates. The training documents are always output in full. The
+	 * limit is not saved with the model.
+	 *
+	 * @param topicsPerDocument number of candidates, 0 for all
+	 */
+	public void setTopicsPerDocument(int topicsPerDocument) {
+		this.topicsPerDocument = topicsPerDocument;
+	}
+
+	public int getTopicsPerDocument() {
+		return topicsPerDocument;
+	}
+
+	/**
+	 * Limits the number of candidates of a document converted through the
+	 * input and output queue that are scored by the classifier after the
+	 * model has been built. If a document has more candidates, only those
+	 * ranked best by their TFxIDF, first occurrence or domain keyphraseness
+	 * are scored and output. The training documents are always scored in
+	 * full. The budget is not saved with the model.
+	 *
+	 * @param candidateBudget number of candidates, 0 for all
+	 */
+	public void setCandidateBudget(int candidateBudget) {
+		this.candidateBudget = candidateBudget;
+	}
+
+	public int getCandidateBudget() {
+		return candidateBudget;
+	}
+
+	/**
+	 * Makes batchFinished only build the model, without converting the
+	 * training documents into output instances, when their candidates and
+	 * ranks are not needed.
+	 */
+	public void setTrainingOnly(boolean trainingOnly) {
+		this.trainingOnly = trainingOnly;
+	}
+
 	public void setVocabularyName(String vocabularyName) {
 		if (vocabularyName.equals("none")) {
 			setThesaurusFeatures(false);
@@ -409,6 +567,160 @@ public class MauiFilter extends Filter {
 		this.vocabulary = vocabulary;
 	}
 
+	/**
+	 * Returns the number of training documents each candidate appears in,
+	 * or null if the model has not been built yet.
+	 */
+	public StringIntMap getDocumentFrequencies() {
+		return documentFrequencies;
+	}
+
+	/**
+	 * Sets the document frequencies of the candidates. Setting them to null
+	 * makes the next batch rebuild the dictionaries and the classifier.
+	 */
+	public void setDocumentFrequencies(StringIntMap documentFrequencies) {
+		this.documentFrequencies = documentFrequencies;
+	}
+
+	StringIntMap getKeyphraseFrequencies() {
+		return keyphraseFrequencies;
+	}
+
+	/**
+	 * Returns the sketch of the document frequencies of pruned candidates,
+	 * whose getErrorBound() bounds their overestimate, or null if none.
+	 */
+	public CountMinSketch getDocumentFrequencySketch() {
+		return documentFrequencySketch;
+	}
+
+	void setDocumentFrequencySketch(CountMinSketch documentFrequencySketch) {
+		this.documentFrequencySketch = documentFrequencySketch;
+	}
+
+	/**
+	 * Returns the number of training documents a candidate appears in,
+	 * estimated by the sketch for pruned candidates, or NO_VALUE if unseen.
+	 */
+	private int getDocumentFrequency(String name) {
+		int documentFrequency = documentFrequencies.get(name);
+		if (documentFrequency == StringIntMap.NO_VALUE && documentFrequencySketch != null) {
+			documentFrequency = documentFrequencySketch.estimate(name);
+			if (documentFrequency == 0) {
+				documentFrequency = StringIntMap.NO_VALUE;
+			}
+		}
+		return documentFrequency;
+	}
+
+	Classifier getClassifier() {
+		return classifier;
+	}
+
+	/**
+	 * Restores the parts of a model that MauiModelFile stores in their own
+	 * sections.
+	 */
+	void setModelData(StringIntMap documentFrequencies,
+			StringIntMap keyphraseFrequencies, Classifier classifier) {
+		this.documentFrequencies = documentFrequencies;
+		this.keyphraseFrequencies = keyphraseFrequencies;
+		this.classifier = classifier;
+	}
+
+	/**
+	 * Converts the dictionaries of models saved before they were kept in
+	 * StringIntMaps.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (globalDictionary != null) {
+			documentFrequencies = toStringIntMap(globalDictionary);
+			globalDictionary = null;
+		}
+		if (keyphraseDictionary != null) {
+			keyphraseFrequencies = toStringIntMap(keyphraseDictionary);
+			keyphraseDictionary = null;
+		}
+	}
+
+	private static StringIntMap toStringIntMap(HashMap<String, Counter> dictionary) {
+		StringIntMap map = new StringIntMap(dictionary.size());
+		for (Map.Entry<String, Counter> entry : dictionary.entrySet()) {
+			// pseudo phrases of stopwords are null and never looked up
+			if (entry.getKey() != null) {
+				map.put(entry.getKey(), entry.getValue().value());
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Returns a copy of this filter whose settings, such as the stemmer,
+	 * stopwords and vocabulary, can be changed while other threads extract
+	 * topics with this filter. The trained model is shared, as it is only
+	 * read, but the copy gets its own phrase filters, formats and output
+	 * queue.
+	 *
+	 * @throws MauiFilterException if the input format cannot be copied
+	 */
+	public MauiFilter copy() throws MauiFilterException {
+		MauiFilter copy;
+		try {
+			copy = (MauiFilter) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+		Instances inputFormat = getInputFormat();
+		Instances outputFormat = outputFormatPeek();
+		if (inputFormat != null) {
+			copy.setInputFormat(inputFormat);
+		}
+		if (outputFormat != null) {
+			Instances outFormat = outputFormat.stringFreeStructure();
+			outFormat.setRelationName(outputFormat.relationName());
+			copy.setOutputFormat(outFormat);
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns a shallow copy of this filter without the dictionaries and the
+	 * classifier, which MauiModelFile stores in their own sections. The copy
+	 * gets fresh phrase and numbers filters, as the string attributes of
+	 * their output formats keep the text of every document seen so far.
+	 */
+	MauiFilter copyWithoutModelData() throws MauiFilterException {
+		MauiFilter copy;
+		try {
+			copy = (MauiFilter) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+		copy.setModelData(null, null, null);
+		copy.documentFrequencySketch = null;
+		copy.allCandidates = null;
+
+		// both filters keep the structure they were given, which is also the
+		// input format of this filter
+		Instances format = getInputFormat();
+		try {
+			if (phraseFilter != null) {
+				copy.phraseFilter = new MauiPhraseFilter();
+				copy.phraseFilter.setOptions(phraseFilter.getOptions());
+				copy.phraseFilter.setInputFormat(format);
+			}
+			if (numbersFilter != null) {
+				copy.numbersFilter = new NumbersFilter();
+				copy.numbersFilter.setInputFormat(format);
+			}
+		} catch (Exception e) {
+			throw new MauiFilterException("Exception copying the phrase filters: " + e.getMessage());
+		}
+		return copy;
+	}
+
 	/**
 	 * Returns a string describing this filter
 	 *
@@ -508,6 +820,10 @@ public class MauiFilter extends Filter {
 			resetQueue();
 			m_NewBatch = false;
 		}
+		if (documentFrequencies != null && outputFormatPeek() != null
+				&& numPendingOutput() == 0) {
+			resetOutputFormat();
+		}
 
 		if (debugMode) {
 			log.info("-- Reading instance");
@@ -531,7 +847,7 @@ public class MauiFilter extends Filter {
 			}
 		}
 
-		if (globalDictionary == null) {
+		if (documentFrequencies == null) {
 
 			bufferInput(instance);
 			return false;
@@ -549,6 +865,17 @@ public class MauiFilter extends Filter {
 
 	}
 
+	/**
+	 * Replaces the output format with a copy without string values. Instances
+	 * that have already been collected keep the old format, so the candidate
+	 * names of earlier documents are not held by this filter.
+	 */
+	private void resetOutputFormat() {
+		Instances outFormat = outputFormatPeek().stringFreeStructure();
+		outFormat.setRelationName("mauidata");
+		setOutputFormat(outFormat);
+	}
+
 	/**
 	 * Signify that this batch of input to the filter is finished. If the filter
 	 * requires all instances prior to filtering, output() may now be called to
@@ -562,18 +889,24 @@ public class MauiFilter extends Filter {
 			throw new MauiFilterException("No input instance format defined");
 		}
 
-		if (globalDictionary == null) {
+		if (documentFrequencies == null) {
 			selectCandidates();
 			buildGlobalDictionaries();
 			buildClassifier();
-			convertPendingInstances();
+			if (trainingOnly) {
+				createOutputFormat();
+			} else {
+				convertPendingInstances();
+			}
+			// the candidates of the training documents are not needed any more
+			allCandidates = null;
 		}
 		flushInput();
 		m_NewBatch = true;
 		return (numPendingOutput() != 0);
 	}
 
-	private void selectCandidates() {
+	private void selectCandidates() throws MauiFilterException {
 
 		if (debugMode) {
 			log.info("--- Computing candidates...");
@@ -582,30 +915,80 @@ public class MauiFilter extends Filter {
 		allCandidates = new HashMap<Instance, HashMap<String, Candidate>>();
 
 		// Convert pending input instances into data for classifier
-		int totalDocuments = getInputFormat().numInstances();
+		final int totalDocuments = getInputFormat().numInstances();
+		List<Callable<HashMap<String, Candidate>>> tasks = new ArrayList<Callable<HashMap<String, Candidate>>>(totalDocuments);
 		for (int i = 0; i < totalDocuments; i++) {
 
-			Instance current = getInputFormat().instance(i);
+			final Instance current = getInputFormat().instance(i);
+			final int j = i + 1;
+			tasks.add(new Callable<HashMap<String, Candidate>>() {
+				@Override
+				public HashMap<String, Candidate> call() {
 
-			String fileName = current.stringValue(fileNameAtt);
-			int j = i + 1;
-			if (debugMode) {
-				log.info("---- Processing document " + fileName
-						+ ", " + j + " out of " + totalDocuments + "...");
-			}
+					String fileName = current.stringValue(fileNameAtt);
+					if (debugMode) {
+						log.info("---- Processing document " + fileName
+								+ ", " + j + " out of " + totalDocuments + "...");
+					}
 
-			// Get the phrases for the document
-			String documentText = current.stringValue(documentAtt);
+					// Get the phrases for the document
+					String documentText = current.stringValue(documentAtt);
 
-			HashMap<String, Candidate> candidateList = getCandidates(documentText);
+					HashMap<String, Candidate> candidateList = getCandidates(documentText);
 
-			if (debugMode) {
-				log.info("---- " + candidateList.size() + " candidates");
-			}
-			allCandidates.put(current, candidateList);
+					if (debugMode) {
+						log.info("---- " + candidateList.size() + " candidates");
+					}
+					return candidateList;
+				}
+			});
+		}
+
+		List<HashMap<String, Candidate>> candidateLists = runTasks(tasks);
+		for (int i = 0; i < totalDocuments; i++) {
+			allCandidates.put(getInputFormat().instance(i), candidateLists.get(i));
+		}
 
+	}
+
+	/**
+	 * Runs the tasks on numThreads threads and returns their results in the
+	 * order of the tasks. With a single thread the tasks are run one after
+	 * another in the calling thread.
+	 */
+	private <T> List<T> runTasks(List<Callable<T>> tasks) throws MauiFilterException {
+
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (numThreads <= 1) {
+			try {
+				for (Callable<T> task : tasks) {
+					results.add(task.call());
+				}
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new MauiFilterException("Exception while building the model " + e.getMessage());
+			}
+			return results;
 		}
 
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			for (Future<T> future : pool.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MauiFilterException("Interrupted while building the model");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new MauiFilterException("Exception while building the model " + e.getCause().getMessage());
+		} finally {
+			pool.shutdown();
+		}
+		return results;
 	}
 
 	/**
@@ -618,15 +1001,10 @@ public class MauiFilter extends Filter {
 
 		// Build a dictionary of candidates with associated
 		// document frequencies
-		globalDictionary = new HashMap<String, Counter>();
+		documentFrequencies = new StringIntMap();
 		for (HashMap<String, Candidate> candidates : allCandidates.values()) {
 			for (String candidateName : candidates.keySet()) {
-				Counter counter = globalDictionary.get(candidateName);
-				if (counter == null) {
-					globalDictionary.put(candidateName, new Counter());
-				} else {
-					counter.increment();
-				}
+				documentFrequencies.increment(candidateName);
 			}
 		}
 
@@ -635,36 +1013,192 @@ public class MauiFilter extends Filter {
 		}
 		// Build a dictionary of candidates that occur as keyphrases
 		// with associated keyphrase frequencies
-		keyphraseDictionary = new HashMap<String, Counter>();
+		keyphraseFrequencies = new StringIntMap();
 		for (int i = 0; i < getInputFormat().numInstances(); i++) {
 			String str = getInputFormat().instance(i)
 					.stringValue(keyphrasesAtt);
-			HashMap<String, Counter> hash = getGivenKeyphrases(str);
-			if (hash != null) {
-				for (String term : hash.keySet()) {
+			countKeyphrases(str);
+		}
 
-					Counter documentCount = hash.get(term);
-					Counter counter = keyphraseDictionary.get(term);
-					if (counter == null) {
-						keyphraseDictionary.put(term, new Counter(documentCount
-								.value()));
-					} else {
-						counter.increment(documentCount.value());
-					}
+		finishGlobalDictionaries(getInputFormat().numInstances());
+	}
+
+	/**
+	 * Adds the topics assigned manually to a document to the keyphrase
+	 * dictionary.
+	 */
+	private void countKeyphrases(String keyphrases) {
+		HashMap<String, Counter> hash = getGivenKeyphrases(keyphrases);
+		if (hash != null) {
+			for (String term : hash.keySet()) {
+				// pseudo phrases of stopwords are null
+				if (term != null) {
+					keyphraseFrequencies.add(term, hash.get(term).value());
 				}
 			}
 		}
+	}
 
+	private void finishGlobalDictionaries(int numDocuments) {
 		if (debugMode) {
 			log.info("--- Statistics about global dictionaries: ");
-			log.info("\t" + globalDictionary.size()
+			log.info("\t" + documentFrequencies.size()
 					+ " terms in the global dictionary");
-			log.info("\t" + keyphraseDictionary.size()
+			log.info("\t" + keyphraseFrequencies.size()
 					+ " terms in the keyphrase dictionary");
 		}
 
+		pruneGlobalDictionary();
+
 		// Set the number of documents in the global corpus
-		numDocs = getInputFormat().numInstances();
+		numDocs = numDocuments;
+	}
+
+	/**
+	 * Builds the dictionaries and the classifier in two passes over the
+	 * training documents, instead of buffering them as input instances until
+	 * batchFinished. The first pass counts the document frequencies and
+	 * keyphrases, the second computes the feature values of the candidates
+	 * for the classifier. Only the candidates of numThreads documents are
+	 * held at a time. The documents are iterated twice, so they can be read
+	 * from disk as they are needed. The input format must have been set.
+	 */
+	public void buildModel(Iterable<MauiDocument> documents) throws MauiFilterException {
+
+		if (getInputFormat() == null) {
+			throw new MauiFilterException("No input instance format defined");
+		}
+
+		if (debugMode) {
+			log.info("--- Building global dictionaries");
+		}
+		documentFrequencies = new StringIntMap();
+		keyphraseFrequencies = new StringIntMap();
+		int numDocuments = 0;
+		Iterator<MauiDocument> iterator = documents.iterator();
+		while (iterator.hasNext()) {
+			final List<MauiDocument> batch = nextBatch(iterator);
+			List<Callable<HashMap<String, Candidate>>> tasks = new ArrayList<Callable<HashMap<String, Candidate>>>(batch.size());
+			for (final MauiDocument document : batch) {
+				tasks.add(new Callable<HashMap<String, Candidate>>() {
+					@Override
+					public HashMap<String, Candidate> call() {
+						return getTrainingCandidates(document);
+					}
+				});
+			}
+			List<HashMap<String, Candidate>> candidateLists = runTasks(tasks);
+			for (int i = 0; i < batch.size(); i++) {
+				for (String candidateName : candidateLists.get(i).keySet()) {
+					documentFrequencies.increment(candidateName);
+				}
+				countKeyphrases(batch.get(i).getTopicsString());
+			}
+			numDocuments += batch.size();
+		}
+		finishGlobalDictionaries(numDocuments);
+
+		if (debugMode) {
+			log.info("--- Computing features for the classifier");
+		}
+		classifierData = newClassifierData();
+		iterator = documents.iterator();
+		while (iterator.hasNext()) {
+			final List<MauiDocument> batch = nextBatch(iterator);
+			List<Callable<double[][]>> tasks = new ArrayList<Callable<double[][]>>(batch.size());
+			for (final MauiDocument document : batch) {
+				tasks.add(new Callable<double[][]>() {
+					@Override
+					public double[][] call() {
+						return computeTrainingFeatures(parseKeyphrases(document.getTopicsString()),
+								getTrainingCandidates(document), document.getFileName());
+					}
+				});
+			}
+			for (double[][] block : runTasks(tasks)) {
+				for (double[] vals : block) {
+					classifierData.add(new Instance(1.0, vals));
+				}
+			}
+		}
+
+		trainClassifier();
+		createOutputFormat();
+	}
+
+	/**
+	 * Returns up to numThreads documents from the iterator.
+	 */
+	private List<MauiDocument> nextBatch(Iterator<MauiDocument> iterator) {
+		List<MauiDocument> batch = new ArrayList<MauiDocument>(Math.max(numThreads, 1));
+		do {
+			batch.add(iterator.next());
+		} while (batch.size() < numThreads && iterator.hasNext());
+		return batch;
+	}
+
+	/**
+	 * Returns the candidates of a training document, tokenized as the phrase
+	 * and numbers filters do with input instances.
+	 */
+	private HashMap<String, Candidate> getTrainingCandidates(MauiDocument document) {
+		String text = phraseFilter.tokenize(document.getTextContent());
+		if (vocabularyName.equals("none")) {
+			text = numbersFilter.filterNumbers(text);
+		}
+		return getCandidates(text);
+	}
+
+	/**
+	 * Removes the candidates below the minimum document frequency and those
+	 * beyond the maximum dictionary size from the global dictionary, moving
+	 * them to the sketch if one is used.
+	 */
+	private void pruneGlobalDictionary() {
+		documentFrequencySketch = null;
+		String[] candidates = documentFrequencies.keys();
+		int numKept = 0;
+		for (String candidate : candidates) {
+			if (documentFrequencies.get(candidate) >= minDocumentFrequency) {
+				candidates[numKept++] = candidate;
+			}
+		}
+		if (maxDictionarySize > 0 && numKept > maxDictionarySize) {
+			// most frequent first, ties in a fixed order
+			Arrays.sort(candidates, 0, numKept, new Comparator<String>() {
+				public int compare(String a, String b) {
+					int diff = documentFrequencies.get(b) - documentFrequencies.get(a);
+					return diff != 0 ? diff : a.compareTo(b);
+				}
+			});
+			numKept = maxDictionarySize;
+		}
+		if (numKept == documentFrequencies.size()) {
+			return;
+		}
+
+		StringIntMap kept = new StringIntMap(numKept);
+		for (int i = 0; i < numKept; i++) {
+			kept.put(candidates[i], documentFrequencies.get(candidates[i]));
+		}
+		if (sketchWidth > 0) {
+			documentFrequencySketch = new CountMinSketch(sketchWidth, sketchDepth);
+			for (String candidate : documentFrequencies.keys()) {
+				if (!kept.containsKey(candidate)) {
+					documentFrequencySketch.add(candidate, documentFrequencies.get(candidate));
+				}
+			}
+		}
+		if (debugMode) {
+			log.info("--- Pruned " + (documentFrequencies.size() - numKept)
+					+ " terms from the global dictionary");
+			if (documentFrequencySketch != null) {
+				log.info("\tTheir document frequencies are overestimated by at most "
+						+ documentFrequencySketch.getErrorBound() + " with probability "
+						+ (1 - documentFrequencySketch.getErrorProbability()));
+			}
+		}
+		documentFrequencies = kept;
 	}
 
 	/**
@@ -673,6 +1207,58 @@ public class MauiFilter extends Filter {
 	 */
 	private void buildClassifier() throws MauiFilterException {
 
+		classifierData = newClassifierData();
+
+		if (debugMode) {
+			log.info("--- Converting instances for classifier");
+		}
+		final int totalDocuments = getInputFormat().numInstances();
+		final int[] numKeyphrases = new int[totalDocuments];
+		// Compute the feature values of each document's candidates
+		List<Callable<double[][]>> tasks = new ArrayList<Callable<double[][]>>(totalDocuments);
+		for (int i = 0; i < totalDocuments; i++) {
+			final Instance current = getInputFormat().instance(i);
+			final int documentIndex = i;
+			tasks.add(new Callable<double[][]>() {
+				@Override
+				public double[][] call() {
+
+					// Get the key phrases for the document
+					String keyphrases = current.stringValue(keyphrasesAtt);
+					HashMap<String, Counter> hashKeyphrases = parseKeyphrases(keyphrases);
+					numKeyphrases[documentIndex] = hashKeyphrases == null ? -1 : hashKeyphrases.size();
+
+					if (debugMode) {
+						log.info("--- Computing features for document " + documentIndex + " out of " + totalDocuments + "...");
+					}
+
+					// Get the phrases for the document
+					return computeTrainingFeatures(hashKeyphrases, allCandidates.get(current),
+							current.stringValue(fileNameAtt));
+				}
+			});
+		}
+
+		// Add the instances to the data for the classifier in document order
+		List<double[][]> blocks = runTasks(tasks);
+		for (int i = 0; i < totalDocuments; i++) {
+			if (numKeyphrases[i] >= 0) {
+				totalCorrect = numKeyphrases[i];
+			}
+			double weight = getInputFormat().instance(i).weight();
+			for (double[] vals : blocks.get(i)) {
+				classifierData.add(new Instance(weight, vals));
+			}
+		}
+
+		trainClassifier();
+	}
+
+	/**
+	 * Creates the empty data for the classifier.
+	 */
+	private Instances newClassifierData() {
+
 		// Generate input format for classifier
 		FastVector atts = new FastVector();
 		for (int i = 0; i < getInputFormat().numAttributes(); i++) {
@@ -703,58 +1289,52 @@ public class MauiFilter extends Filter {
 			}
 		}
 
-		classifierData = new Instances("ClassifierData", atts, 0);
+		Instances data = new Instances("ClassifierData", atts, 0);
 
-		classifierData.setClassIndex(numFeatures);
-
-		if (debugMode) {
-			log.info("--- Converting instances for classifier");
-		}
-		int totalDocuments = getInputFormat().numInstances();
-		// Convert pending input instances into data for classifier
-		for (int i = 0; i < totalDocuments; i++) {
-			Instance current = getInputFormat().instance(i);
+		data.setClassIndex(numFeatures);
+		return data;
+	}
 
-			// Get the key phrases for the document
-			String keyphrases = current.stringValue(keyphrasesAtt);
-			HashMap<String, Counter> hashKeyphrases = getGivenKeyphrases(keyphrases);
+	/**
+	 * Computes the feature values of the candidates of a training document
+	 * that occur often enough.
+	 */
+	private double[][] computeTrainingFeatures(HashMap<String, Counter> hashKeyphrases,
+			HashMap<String, Candidate> candidateList, String fileName) {
 
-			// Get the phrases for the document
-			HashMap<String, Candidate> candidateList = allCandidates
-					.get(current);
+		// Compute the feature values for each phrase
+		ArrayList<double[]> block = new ArrayList<double[]>(candidateList.size());
+		int countPos = 0;
+		int countNeg = 0;
 
-			// Compute the feature values for each phrase and
-			// add the instance to the data for the classifier
-			int countPos = 0;
-			int countNeg = 0;
+		for (Candidate candidate : candidateList.values()) {
 
-			if (debugMode) {
-				log.info("--- Computing features for document " + i + " out of " + totalDocuments + "...");
-			}
-
-			for (Candidate candidate : candidateList.values()) {
-
-				// ignore all candidates that appear less than a threshold
-				if (candidate.getFrequency() < minOccurFrequency) {
-					continue;
-				}
-
-				// compute feature values
-				double[] vals = computeFeatureValues(candidate, true,
-						hashKeyphrases, candidateList);
+			// ignore all candidates that appear less than a threshold
+			if (candidate.getFrequency() < minOccurFrequency) {
+				continue;
+			}
 
-				if (vals[vals.length - 1] == 0) {
-					countNeg++;
-				} else {
-					countPos++;
-				}
-				Instance inst = new Instance(current.weight(), vals);
-				// log.info(candidate + "\t" + inst);
-				classifierData.add(inst);
+			// compute feature values
+			double[] vals = computeFeatureValues(candidate, true,
+					hashKeyphrases, candidateList);
 
+			if (vals[vals.length - 1] == 0) {
+				countNeg++;
+			} else {
+				countPos++;
 			}
-			log.debug(countPos + " positive; " + countNeg + " negative instances");
+			block.add(vals);
+		}
+		if (debugMode) {
+			log.info(fileName + ": " + countPos + " positive; " + countNeg + " negative instances");
 		}
+		return block.toArray(new double[block.size()][]);
+	}
+
+	/**
+	 * Builds the classifier from classifierData, which is emptied afterwards.
+	 */
+	private void trainClassifier() throws MauiFilterException {
 
 		log.debug("--- Building classifier");
 
@@ -801,6 +1381,7 @@ public class MauiFilter extends Filter {
 
 		// Save space
 		classifierData = new Instances(classifierData, 0);
+		compiledFrom = null;
 	}
 
 	/**
@@ -819,10 +1400,10 @@ public class MauiFilter extends Filter {
 		String title = candidate.getTitle();
 
 		// Compute TFxIDF
-		Counter counterGlobal = (Counter) globalDictionary.get(name);
+		int documentFrequency = getDocumentFrequency(name);
 		double globalVal = 0;
-		if (counterGlobal != null) {
-			globalVal = counterGlobal.value();
+		if (documentFrequency != StringIntMap.NO_VALUE) {
+			globalVal = documentFrequency;
 			if (training) {
 				globalVal = globalVal - 1;
 			}
@@ -849,14 +1430,15 @@ public class MauiFilter extends Filter {
 			if (!vocabularyName.equals("none")) {
 				name = title;
 			}
-			Counter domainKeyphr = keyphraseDictionary.get(name);
+			int domainKeyphr = name == null ? StringIntMap.NO_VALUE
+					: keyphraseFrequencies.get(name);
 
 			if ((training) && (hashKeyphrases != null)
 					&& (hashKeyphrases.containsKey(name))) {
-				newInst[domainKeyphIndex] = domainKeyphr.value() - 1;
+				newInst[domainKeyphIndex] = domainKeyphr - 1;
 			} else {
-				if (domainKeyphr != null) {
-					newInst[domainKeyphIndex] = domainKeyphr.value();
+				if (domainKeyphr != StringIntMap.NO_VALUE) {
+					newInst[domainKeyphIndex] = domainKeyphr;
 				} else {
 					newInst[domainKeyphIndex] = 0;
 				}
@@ -954,6 +1536,25 @@ public class MauiFilter extends Filter {
 			log.info("--- Converting pending instances");
 		}
 
+		createOutputFormat();
+
+		// Convert pending input instances into output data
+		for (int i = 0; i < getInputFormat().numInstances(); i++) {
+			Instance current = getInputFormat().instance(i);
+			FastVector vector = convertInstance(current, true);
+			Enumeration<Instance> en = vector.elements();
+			while (en.hasMoreElements()) {
+				Instance inst = (Instance) en.nextElement();
+				push(inst);
+			}
+		}
+	}
+
+	/**
+	 * Creates the output format of this filter.
+	 */
+	private void createOutputFormat() {
+
 		// Create output format for filter
 		FastVector atts = new FastVector();
 		for (int i = 1; i < getInputFormat().numAttributes(); i++) {
@@ -996,17 +1597,6 @@ public class MauiFilter extends Filter {
 
 		Instances outFormat = new Instances("mauidata", atts, 0);
 		setOutputFormat(outFormat);
-
-		// Convert pending input instances into output data
-		for (int i = 0; i < getInputFormat().numInstances(); i++) {
-			Instance current = getInputFormat().instance(i);
-			FastVector vector = convertInstance(current, true);
-			Enumeration<Instance> en = vector.elements();
-			while (en.hasMoreElements()) {
-				Instance inst = (Instance) en.nextElement();
-				push(inst);
-			}
-		}
 	}
 
 	/**
@@ -1014,8 +1604,6 @@ public class MauiFilter extends Filter {
 	 */
 	private FastVector convertInstance(Instance instance, boolean training) {
 
-		FastVector vector = new FastVector();
-
 		String fileName = instance.stringValue(fileNameAtt);
 
 		if (debugMode) {
@@ -1044,46 +1632,82 @@ public class MauiFilter extends Filter {
 			log.info(candidateList.size() + " candidates ");
 		}
 
-		// Set indices for key attributes
-		int tfidfAttIndex = documentAtt + 2;
-		int distAttIndex = documentAtt + 3;
-		int probsAttIndex = documentAtt + numFeatures;
-
 		int countPos = 0;
 		int countNeg = 0;
 
-		// Go through the phrases and convert them into instances
+		// Compute the features of every candidate
+		ArrayList<Candidate> eligible = new ArrayList<Candidate>(candidateList.size());
+		ArrayList<double[]> eligibleFeatures = new ArrayList<double[]>(candidateList.size());
 		for (Candidate candidate : candidateList.values()) {
-
-			if (candidate.getFrequency() < minOccurFrequency) {
-				continue;
+			if (candidate.getFrequency() >= minOccurFrequency) {
+				eligible.add(candidate);
+				eligibleFeatures.add(computeFeatureValues(candidate, training,
+						hashKeyphrases, candidateList));
 			}
+		}
 
-			String name = candidate.getName();
-			String orig = candidate.getBestFullForm();
-			if (!vocabularyName.equals("none")) {
-				orig = candidate.getTitle();
-			}
+		// Compute the probability of every candidate within the budget
+		int[] scored = training ? withinBudget(eligibleFeatures, 0) : withinBudget(eligibleFeatures, candidateBudget);
+		ArrayList<Candidate> candidates = new ArrayList<Candidate>(scored.length);
+		ArrayList<Instance> featureInstances = new ArrayList<Instance>(scored.length);
+		double[] probabilities = new double[scored.length];
+		for (int index : scored) {
 
-			double[] vals = computeFeatureValues(candidate, training,
-					hashKeyphrases, candidateList);
+			Candidate candidate = eligible.get(index);
 
-			Instance inst = new Instance(instance.weight(), vals);
+			Instance inst = new Instance(instance.weight(), eligibleFeatures.get(index));
 
 			inst.setDataset(classifierData);
 
-			double[] probs = null;
+			double prob;
 			try {
 				// Get probability of a phrase being key phrase
-				probs = classifier.distributionForInstance(inst);
+				prob = getProbability(eligibleFeatures.get(index));
 			} catch (Exception e) {
 				log.error("Exception while getting probability for candidate " + candidate.getName());
 				continue;
 			}
 
-			double prob = probs[0];
-			if (nominalClassValue) {
-				prob = probs[1];
+			probabilities[candidates.size()] = prob;
+			candidates.add(candidate);
+			featureInstances.add(inst);
+
+			if (inst.classValue() == 0) {
+				countNeg++;
+			} else {
+				countPos++;
+			}
+		}
+		if (debugMode) {
+			log.info(countPos + " positive; " + countNeg + " negative instances");
+		}
+
+		// Rank the candidates by probability, then by the idf and tfxidf
+		// values, which are the columns documentAtt + 2 and documentAtt + 3
+		// of the output instances, and only output the top ranked ones
+		double[] distances = new double[candidates.size()];
+		double[] tfidfs = new double[candidates.size()];
+		for (int i = 0; i < distances.length; i++) {
+			Instance inst = featureInstances.get(i);
+			distances[i] = inst.value(tfidfIndex);
+			tfidfs[i] = inst.value(idfIndex);
+		}
+		int numOutput = training || topicsPerDocument <= 0 ? candidates.size() : topicsPerDocument;
+		int[] order = topRanked(distances, tfidfs, probabilities, numOutput);
+
+		// Rank of the phrases. Very unlikely phrases get the rank
+		// Integer.MAX_VALUE
+		int rank = 1;
+		FastVector vector = new FastVector(order.length);
+		for (int index : order) {
+
+			Candidate candidate = candidates.get(index);
+			Instance inst = featureInstances.get(index);
+
+			String name = candidate.getName();
+			String orig = candidate.getBestFullForm();
+			if (!vocabularyName.equals("none")) {
+				orig = candidate.getTitle();
 			}
 
 			// Compute attribute values for final instance
@@ -1098,19 +1722,19 @@ public class MauiFilter extends Filter {
 
 
 					// 0 Add phrase
-					int index = outputFormatPeek().attribute(pos)
+					int stringIndex = outputFormatPeek().attribute(pos)
 							.addStringValue(name);
-					newInst[pos++] = index; 
+					newInst[pos++] = stringIndex; 
 
 					// 1 Add original version
 					if (orig != null) {
-						index = outputFormatPeek().attribute(pos).addStringValue(orig);
+						stringIndex = outputFormatPeek().attribute(pos).addStringValue(orig);
 					} else {
-						index = outputFormatPeek().attribute(pos).addStringValue(name);
+						stringIndex = outputFormatPeek().attribute(pos).addStringValue(name);
 					}
 
 					// 2
-					newInst[pos++] = index;
+					newInst[pos++] = stringIndex;
 
 					// Add features
 					newInst[pos++] = inst.value(tfIndex); // 3
@@ -1128,11 +1752,14 @@ public class MauiFilter extends Filter {
 					newInst[pos++] = inst.value(wikipGeneralityIndex); // 15
 
 					// Add probability
-					probsAttIndex = pos;
-					newInst[pos++] = prob; // 16
+					newInst[pos++] = probabilities[index]; // 16
 
-					// Set rank to missing (computed below)
-					newInst[pos++] = Instance.missingValue(); // 17
+					// Add rank
+					if (Utils.grOrEq(1 - probabilities[index], 1.0)) {
+						newInst[pos++] = Integer.MAX_VALUE; // 17
+					} else {
+						newInst[pos++] = rank++; // 17
+					}
 
 				} else if (i == keyphrasesAtt) {
 					newInst[pos++] = inst.classValue();
@@ -1144,91 +1771,375 @@ public class MauiFilter extends Filter {
 			Instance ins = new Instance(instance.weight(), newInst);
 			ins.setDataset(outputFormatPeek());
 			vector.addElement(ins);
+		}
 
-			if (inst.classValue() == 0) {
-				countNeg++;
-			} else {
-				countPos++;
+		return vector;
+	}
+
+	/**
+	 * Extracts the topics of a single document without going through the
+	 * filter's input/output queue. Nothing is buffered in this filter or added
+	 * to the string attributes of its output format, so many threads can call
+	 * this method at once on the same trained model. All candidates are
+	 * scored.
+	 *
+	 * @param documentText the text of the document
+	 * @param manualTopics topics assigned manually, one per line, or null
+	 * @param topicsPerDocument maximum number of topics to return
+	 * @param minProbability only topics with a higher probability are returned
+	 * @return the topics, ordered by rank, with the candidate names as ids
+	 * @throws MauiFilterException if the model has not been built yet
+	 */
+	public List<Topic> extractTopics(String documentText, String manualTopics,
+			int topicsPerDocument, double minProbability) throws MauiFilterException {
+		return extractTopics(documentText, manualTopics, topicsPerDocument, 0, minProbability);
+	}
+
+	/**
+	 * Extracts the top ranked topics of a document like
+	 * extractTopics(String, String, int, double), but only scores the
+	 * candidates within a budget, as chosen by setCandidateBudget.
+	 *
+	 * @param documentText the text of the document
+	 * @param manualTopics topics assigned manually, one per line, or null
+	 * @param topicsPerDocument maximum number of topics to return
+	 * @param candidateBudget number of candidates scored, 0 for all
+	 * @param minProbability only topics with a higher probability are returned
+	 * @return the topics, ordered by rank, with the candidate names as ids
+	 * @throws MauiFilterException if the model has not been built yet
+	 */
+	public List<Topic> extractTopics(String documentText, String manualTopics,
+			int topicsPerDocument, int candidateBudget, double minProbability) throws MauiFilterException {
+
+		if (documentFrequencies == null || phraseFilter == null) {
+			throw new MauiFilterException("Model has not been built yet");
+		}
+
+		String text = phraseFilter.tokenize(documentText);
+		if (vocabularyName.equals("none")) {
+			text = numbersFilter.filterNumbers(text);
+		}
+
+		HashMap<String, Counter> hashKeyphrases = null;
+		if (manualTopics != null) {
+			hashKeyphrases = parseKeyphrases(manualTopics);
+		}
+
+		HashMap<String, Candidate> candidateList = getCandidates(text);
+
+		ArrayList<Candidate> eligible = new ArrayList<Candidate>(candidateList.size());
+		ArrayList<double[]> eligibleFeatures = new ArrayList<double[]>(candidateList.size());
+		for (Candidate candidate : candidateList.values()) {
+			if (candidate.getFrequency() >= minOccurFrequency) {
+				eligible.add(candidate);
+				eligibleFeatures.add(computeFeatureValues(candidate, false,
+						hashKeyphrases, candidateList));
+			}
+		}
+
+		int[] scored = withinBudget(eligibleFeatures, candidateBudget);
+		ArrayList<Candidate> candidates = new ArrayList<Candidate>(scored.length);
+		ArrayList<double[]> features = new ArrayList<double[]>(scored.length);
+		ArrayList<Double> probs = new ArrayList<Double>(scored.length);
+		for (int index : scored) {
+
+			Candidate candidate = eligible.get(index);
+			double[] vals = eligibleFeatures.get(index);
+
+			double prob;
+			try {
+				prob = getProbability(vals);
+			} catch (Exception e) {
+				log.error("Exception while getting probability for candidate " + candidate.getName());
+				continue;
 			}
+			candidates.add(candidate);
+			features.add(vals);
+			probs.add(prob);
+		}
 
+		// Rank by the same columns as convertInstance: the idf value is
+		// followed by the tfxidf value in the output instances
+		double[] distances = new double[features.size()];
+		double[] tfidfs = new double[features.size()];
+		double[] probabilities = new double[features.size()];
+		for (int i = 0; i < distances.length; i++) {
+			double[] vals = features.get(i);
+			distances[i] = vals[tfidfIndex];
+			tfidfs[i] = vals[idfIndex];
+			probabilities[i] = probs.get(i);
 		}
-		if (debugMode) {
-			log.info(countPos + " positive; " + countNeg + " negative instances");
+		int[] order = topRanked(distances, tfidfs, probabilities, topicsPerDocument, minProbability);
+
+		List<Topic> topics = new ArrayList<Topic>(order.length);
+		for (int index : order) {
+			Candidate candidate = candidates.get(index);
+			String title = candidate.getBestFullForm();
+			if (!vocabularyName.equals("none")) {
+				title = candidate.getTitle();
+			}
+			if (title == null) {
+				title = candidate.getName();
+			}
+			Topic topic = new Topic(title, candidate.getName(), probabilities[index]);
+			topic.setCorrectness((int) features.get(index)[numFeatures] == 1);
+			topics.add(topic);
+		}
+		return topics;
+	}
+
+	/**
+	 * Returns the indices, in increasing order, of the candidates that are
+	 * scored by the classifier: all of them, or if there are more than the
+	 * budget, the best ones by TFxIDF, by first occurrence and by domain
+	 * keyphraseness, taken in turns from the three rankings. A candidate that
+	 * is among the best by any one feature is kept, even if another feature
+	 * ranks it last, e.g. a frequent keyphrase that occurs in every training
+	 * document and has a TFxIDF value of 0.
+	 *
+	 * @param features the feature values of the candidates
+	 * @param budget the number of candidates to keep, 0 for all
+	 */
+	private int[] withinBudget(List<double[]> features, int budget) {
+		int n = features.size();
+		if (budget <= 0 || n <= budget) {
+			int[] all = new int[n];
+			for (int i = 0; i < n; i++) {
+				all[i] = i;
+			}
+			return all;
 		}
 
-		// Sort phrases according to their distance (stable sort)
-		double[] vals = new double[vector.size()];
-		for (int i = 0; i < vals.length; i++) {
-			vals[i] = ((Instance) vector.elementAt(i)).value(distAttIndex);
+		int[][] rankings = {
+				rankBy(features, tfidfIndex, true),
+				rankBy(features, firstOccurIndex, false),
+				rankBy(features, domainKeyphIndex, true) };
+		boolean[] taken = new boolean[n];
+		int[] kept = new int[budget];
+		int numKept = 0;
+		for (int rank = 0; numKept < budget; rank++) {
+			for (int[] ranking : rankings) {
+				int candidate = ranking[rank];
+				if (!taken[candidate] && numKept < budget) {
+					taken[candidate] = true;
+					kept[numKept++] = candidate;
+				}
+			}
 		}
-		FastVector newVector = new FastVector(vector.size());
-		int[] sortedIndices = Utils.stableSort(vals);
-		for (int i = 0; i < vals.length; i++) {
-			newVector.addElement(vector.elementAt(sortedIndices[i]));
+		Arrays.sort(kept);
+		return kept;
+	}
+
+	/**
+	 * Returns the candidates ordered by one feature, ties in their original
+	 * order and missing values last.
+	 */
+	private static int[] rankBy(List<double[]> features, int featureIndex, boolean descending) {
+		double[] values = new double[features.size()];
+		for (int i = 0; i < values.length; i++) {
+			double value = features.get(i)[featureIndex];
+			values[i] = descending ? -value : value;
 		}
-		vector = newVector;
+		return Utils.stableSort(values);
+	}
 
-		// Sort phrases according to their tfxidf value (stable sort)
-		for (int i = 0; i < vals.length; i++) {
-			vals[i] = -((Instance) vector.elementAt(i)).value(tfidfAttIndex);
+	/**
+	 * Computes the probability of a candidate being a topic from its feature
+	 * values, with the compiled classifier if there is one.
+	 */
+	private double getProbability(double[] values) throws Exception {
+		CompiledTreeEnsemble compiled = getCompiledClassifier();
+		if (compiled != null) {
+			return compiled.probability(values, 1);
 		}
-		newVector = new FastVector(vector.size());
-		sortedIndices = Utils.stableSort(vals);
-		for (int i = 0; i < vals.length; i++) {
-			newVector.addElement(vector.elementAt(sortedIndices[i]));
+		Instance inst = new Instance(1.0, values);
+		inst.setDataset(classifierData);
+		return getProbability(inst);
+	}
+
+	/**
+	 * Returns the classifier compiled into flat arrays, or null if it is not
+	 * a J48 tree or a Bagging ensemble of them with a nominal class. Compiled
+	 * again whenever the classifier changes.
+	 */
+	private CompiledTreeEnsemble getCompiledClassifier() {
+		if (compiledFrom != classifier) {
+			synchronized (this) {
+				if (compiledFrom != classifier) {
+					compiledClassifier = CompiledTreeEnsemble.compile(classifier, classifierData);
+					compiledFrom = classifier;
+					if (compiledClassifier != null) {
+						log.debug("Compiled classifier: " + compiledClassifier.numTrees() + " trees, "
+								+ compiledClassifier.numNodes() + " nodes, "
+								+ compiledClassifier.numLeaves() + " leaves");
+					}
+				}
+			}
 		}
-		vector = newVector;
+		return compiledClassifier;
+	}
 
-		// Sort phrases according to their probability (stable sort)
-		for (int i = 0; i < vals.length; i++) {
-			vals[i] = 1 - ((Instance) vector.elementAt(i)).value(probsAttIndex);
+	/**
+	 * Computes the probability of a candidate instance being a topic.
+	 * Classifiers that modify their state while classifying (e.g. M5P, which
+	 * filters each instance) are only used by one thread at a time.
+	 */
+	private double getProbability(Instance inst) throws Exception {
+		double[] probs;
+		if (isReentrantClassifier()) {
+			probs = classifier.distributionForInstance(inst);
+		} else {
+			synchronized (classifier) {
+				probs = classifier.distributionForInstance(inst);
+			}
 		}
-		newVector = new FastVector(vector.size());
-		sortedIndices = Utils.stableSort(vals);
-		for (int i = 0; i < vals.length; i++) {
-			newVector.addElement(vector.elementAt(sortedIndices[i]));
+		if (nominalClassValue) {
+			return probs[1];
 		}
-		vector = newVector;
+		return probs[0];
+	}
 
-		// Compute rank of phrases. Check for subphrases that are ranked
-		// lower than superphrases and assign probability -1 and set the
-		// rank to Integer.MAX_VALUE
-		int rank = 1;
-		for (int i = 0; i < vals.length; i++) {
-			Instance currentInstance = (Instance) vector.elementAt(i);
+	/**
+	 * Checks whether the classifier can be used by several threads at once.
+	 */
+	private boolean isReentrantClassifier() {
+		if (classifier instanceof J48) {
+			return true;
+		}
+		if (classifier instanceof Bagging) {
+			return ((Bagging) classifier).getClassifier() instanceof J48;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the k top ranked candidates in the order of their rank: by
+	 * probability, then by the value of the tfidf column and then by the
+	 * distance column, as three stable sorts of all candidates would. Keeps
+	 * the k best candidates seen so far in a heap with the worst one on top.
+	 */
+	static int[] topRanked(double[] distances, double[] tfidfs,
+			double[] probabilities, int k) {
+		return topRanked(distances, tfidfs, probabilities, k, Double.NEGATIVE_INFINITY);
+	}
 
-			// log.info(vals[i] + "\t" + currentInstance);
+	/**
+	 * Returns the k top ranked candidates whose probability is not at or
+	 * below the minimum. The candidates left out still count when values
+	 * within Weka's tolerance are grouped, so the ranks are those of the
+	 * stable sorts of all candidates.
+	 */
+	static int[] topRanked(double[] distances, double[] tfidfs,
+			double[] probabilities, int k, double minProbability) {
 
-			// Short cut: if phrase very unlikely make rank very low and
-			// continue
-			if (Utils.grOrEq(vals[i], 1.0)) {
-				currentInstance.setValue(probsAttIndex + 1, Integer.MAX_VALUE);
+		int n = distances.length;
+		double[] values = new double[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = 1 - probabilities[i];
+		}
+		int[][] groups = new int[3][];
+		groups[0] = sortGroups(values);
+		for (int i = 0; i < n; i++) {
+			values[i] = -tfidfs[i];
+		}
+		groups[1] = sortGroups(values);
+		groups[2] = sortGroups(distances);
+
+		k = Math.max(0, Math.min(k, n));
+		int[] heap = new int[k];
+		int size = 0;
+		for (int candidate = 0; candidate < n; candidate++) {
+			if (probabilities[candidate] <= minProbability) {
 				continue;
 			}
-
-			// Otherwise look for super phrase starting with first phrase
-			// in list that has same probability, TFxIDF value, and distance as
-			// current phrase. We do this to catch all superphrases
-			// that have same probability, TFxIDF value and distance as current
-			// phrase.
-			int startInd = i;
-			while (startInd < vals.length) {
-				Instance inst = (Instance) vector.elementAt(startInd);
-				if ((inst.value(tfidfAttIndex) != currentInstance
-						.value(tfidfAttIndex))
-						|| (inst.value(probsAttIndex) != currentInstance
-						.value(probsAttIndex))
-						|| (inst.value(distAttIndex) != currentInstance
-						.value(distAttIndex))) {
-					break;
+			if (size < k) {
+				// sift up
+				int i = size++;
+				while (i > 0) {
+					int parent = (i - 1) / 2;
+					if (compareRanks(heap[parent], candidate, groups) >= 0) {
+						break;
+					}
+					heap[i] = heap[parent];
+					i = parent;
 				}
-				startInd++;
+				heap[i] = candidate;
+			} else if (k > 0 && compareRanks(candidate, heap[0], groups) < 0) {
+				siftDown(heap, size, candidate, groups);
 			}
-			currentInstance.setValue(probsAttIndex + 1, rank++);
+		}
 
+		// take the worst remaining candidate off the heap until it is empty
+		int[] order = new int[size];
+		while (size > 0) {
+			order[--size] = heap[0];
+			siftDown(heap, size, heap[size], groups);
 		}
+		return order;
+	}
 
-		return vector;
+	/**
+	 * Returns for every value the number of the group of values that
+	 * Utils.stableSort treats as equal, in increasing order. Like
+	 * stableSort, it sorts the values with missing values last and starts a
+	 * group at the smallest value left, which takes all values within Weka's
+	 * tolerance of it. Values in a chain of near ties can therefore be in
+	 * different groups.
+	 */
+	private static int[] sortGroups(double[] values) {
+		int[] sorted = Utils.sort(values);
+		int[] groups = new int[values.length];
+		int group = 0;
+		int i = 0;
+		while (i < sorted.length) {
+			double first = valueOrMax(values[sorted[i]]);
+			int j = i;
+			while (j < sorted.length && Utils.eq(first, valueOrMax(values[sorted[j]]))) {
+				groups[sorted[j++]] = group;
+			}
+			group++;
+			i = j;
+		}
+		return groups;
+	}
+
+	private static double valueOrMax(double value) {
+		return Double.isNaN(value) ? Double.MAX_VALUE : value;
+	}
+
+	/**
+	 * Puts the candidate at the top of a heap of the given size and moves it
+	 * down to its place.
+	 */
+	private static void siftDown(int[] heap, int size, int candidate, int[][] groups) {
+		int i = 0;
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && compareRanks(heap[child + 1], heap[child], groups) > 0) {
+				child++;
+			}
+			if (compareRanks(heap[child], candidate, groups) <= 0) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		if (size > 0) {
+			heap[i] = candidate;
+		}
+	}
+
+	/**
+	 * Compares the ranks of two candidates by their groups, negative if a
+	 * ranks before b.
+	 */
+	private static int compareRanks(int a, int b, int[][] groups) {
+		for (int[] keyGroups : groups) {
+			if (keyGroups[a] != keyGroups[b]) {
+				return keyGroups[a] < keyGroups[b] ? -1 : 1;
+			}
+		}
+		return Integer.compare(a, b);
 	}
 
 	/**
@@ -1240,6 +2151,16 @@ public class MauiFilter extends Filter {
 	 * @return the total number of words in the document.
 	 */
 	public HashMap<String, Candidate> getCandidates(String text) {
+		return getCandidates(text, MAX_CACHED_FORMS);
+	}
+
+	/**
+	 * See getCandidates(String).
+	 *
+	 * @param maxCachedForms maximum number of phrases whose normalized forms
+	 * are remembered while extracting the candidates of the document
+	 */
+	HashMap<String, Candidate> getCandidates(String text, int maxCachedForms) {
 
 		if (debugMode) {
 			log.info("---- Extracting candidates... ");
@@ -1247,151 +2168,184 @@ public class MauiFilter extends Filter {
 
 		HashMap<String, Candidate> candidatesTable = new HashMap<String, Candidate>();
 
+		// Ring buffer with the last words seen, their offsets in the text and
+		// whether they are separated from the previous word by a single space
 		String[] buffer = new String[maxPhraseLength];
+		int[] starts = new int[maxPhraseLength];
+		int[] ends = new int[maxPhraseLength];
+		boolean[] singleSpaceBefore = new boolean[maxPhraseLength];
+		int last = maxPhraseLength - 1;
+
+		// Used for phrases that are not a contiguous part of the text
+		StringBuilder phraseBuilder = new StringBuilder();
+
+		// Pseudo phrases and vocabulary senses of the forms seen in this
+		// document, so that repeated phrases are not normalized again
+		HashMap<String, String> pseudoPhrases = new HashMap<String, String>();
+		HashMap<String, ArrayList<String>> formSenses = new HashMap<String, ArrayList<String>>();
+
+		// Rules out phrases that are not in the vocabulary before they are
+		// normalized, and stops extending them once no term can contain them
+		PhraseIndex.Matcher matcher = null;
+		if (!vocabularyName.equals("none")) {
+			PhraseIndex phraseIndex = vocabulary.getPhraseIndex();
+			if (phraseIndex != null) {
+				matcher = phraseIndex.newMatcher(maxPhraseLength);
+			}
+		}
 
-		// Extracting strings of a predefined length from text
+		// Extracting strings of a predefined length from text.
+		// Lines are separated by '\n' and words by ' '
 
 		// log.info(text);
-		StringTokenizer tok = new StringTokenizer(text, "\n");
 		int pos = 0;
 		int totalFrequency = 0;
 		int firstWord = 0;
-		while (tok.hasMoreTokens()) {
-			String token = tok.nextToken();
+		int numSeen = 0;
+		int length = text.length();
+		int j = 0;
+		while (j < length) {
+
+			char ch = text.charAt(j);
+			if (ch == '\n') {
+				numSeen = 0;
+				j++;
+				continue;
+			}
+			if (ch == ' ') {
+				j++;
+				continue;
+			}
 
-			int numSeen = 0;
-			StringTokenizer wordTok = new StringTokenizer(token, " ");
+			int start = j;
+			while (j < length && text.charAt(j) != ' ' && text.charAt(j) != '\n') {
+				j++;
+			}
 
-			while (wordTok.hasMoreTokens()) {
+			pos++;
+
+			// Store word in buffer
+			int previous = last;
+			last = (last + 1) % maxPhraseLength;
+			buffer[last] = text.substring(start, j);
+			starts[last] = start;
+			ends[last] = j;
+			singleSpaceBefore[last] = numSeen > 0 && start == ends[previous] + 1;
+			if (matcher != null) {
+				matcher.addWord(buffer[last]);
+			}
+
+			// How many are buffered?
+			numSeen++;
+			if (numSeen > maxPhraseLength) {
+				numSeen = maxPhraseLength;
+			}
 
-				pos++;
+			// Don't consider phrases that end with a stop word
+			if (stopwords.isStopword(buffer[last])) {
+				continue;
+			}
 
-				String word = wordTok.nextToken();
+			if (matcher != null) {
+				matcher.startPhrase();
+			}
 
-				// Store word in buffer
-				for (int i = 0; i < maxPhraseLength - 1; i++) {
-					buffer[i] = buffer[i + 1];
+			// Loop through buffer and add phrases to hashtable
+			boolean contiguous = true;
+			for (int i = 1; i <= numSeen; i++) {
+				int first = (last - i + 1 + maxPhraseLength) % maxPhraseLength;
+				if (i > 1) {
+					contiguous &= singleSpaceBefore[(first + 1) % maxPhraseLength];
+				}
+				if (matcher != null && !matcher.extendPhrase()) {
+					break;
 				}
-				buffer[maxPhraseLength - 1] = word;
 
-				// How many are buffered?
-				numSeen++;
-				if (numSeen > maxPhraseLength) {
-					numSeen = maxPhraseLength;
+				// Don't consider phrases that begin with a stop word
+				// In free indexing only
+				if ((i > 1) && (stopwords.isStopword(buffer[first]))) {
+					continue;
 				}
 
-				// Don't consider phrases that end with a stop word
-				if (stopwords.isStopword(buffer[maxPhraseLength - 1])) {
+				// Only consider phrases with minimum length
+				if (i < minPhraseLength) {
 					continue;
 				}
 
-				// Loop through buffer and add phrases to hashtable
-				StringBuffer phraseBuffer = new StringBuffer();
-				for (int i = 1; i <= numSeen; i++) {
-					if (i > 1) {
-						phraseBuffer.insert(0, ' ');
-					}
-					phraseBuffer.insert(0, buffer[maxPhraseLength - i]);
+				if (matcher != null && !matcher.mayMatch()) {
+					continue;
+				}
 
-					// Don't consider phrases that begin with a stop word
-					// In free indexing only
-					if ((i > 1)
-							&& (stopwords.isStopword(buffer[maxPhraseLength - i]))) {
-						continue;
+				// each detected candidate phase in its original
+				// spelling form
+				String form;
+				if (i == 1) {
+					form = buffer[last];
+				} else if (contiguous) {
+					form = text.substring(starts[first], ends[last]);
+				} else {
+					phraseBuilder.setLength(0);
+					for (int k = i; k >= 1; k--) {
+						if (k < i) {
+							phraseBuilder.append(' ');
+						}
+						phraseBuilder.append(buffer[(last - k + 1 + maxPhraseLength) % maxPhraseLength]);
 					}
+					form = phraseBuilder.toString();
+				}
 
-					// Only consider phrases with minimum length
-					if (i >= minPhraseLength) {
-
-						// each detected candidate phase in its original
-						// spelling form
-						String form = phraseBuffer.toString();
-
-						// list of candidates extracted for a given original
-						// string
-						// in case of term assignment more than one possible!
-						ArrayList<String> candidateNames = new ArrayList<String>();
-
-						if (vocabularyName.equals("none")) {
-
-							// if it is free keyphrase indexing,
-							// get the pseudo phrase of the original spelling
-							String phrase = pseudoPhrase(form);
-							if (phrase != null) {
-								candidateNames.add(phrase);
-							}
-							totalFrequency++;
-							//	log.info(form + ", ");
-
-						} else {
-							//	log.info("...retrieving senses for form " + form);
-							// if a controlled vocabulary is used
-							// retrieve its senses
-							for (String sense : vocabulary.getSenses(form)) {
-								// mapping
-								log.debug(form + " => " + vocabulary.getTerm(sense)+" " + this.minOccurFrequency);
-								candidateNames.add(sense);
-							}
-
+				// in case of term assignment more than one candidate
+				// is possible for a given original string.
+				// Phrases that have empty pseudo phrases or that map
+				// to nothing in the vocabulary are ignored
+				if (vocabularyName.equals("none")) {
+
+					// if it is free keyphrase indexing,
+					// get the pseudo phrase of the original spelling
+					String phrase = pseudoPhrases.get(form);
+					if (phrase == null && !pseudoPhrases.containsKey(form)) {
+						phrase = pseudoPhrase(form);
+						if (pseudoPhrases.size() < maxCachedForms) {
+							pseudoPhrases.put(form, phrase);
 						}
+					}
+					totalFrequency++;
+					if (phrase != null) {
+						firstWord = pos - i;
+						recordCandidate(candidatesTable, phrase, form, firstWord);
+						totalFrequency++;
+					}
 
-						// log.info("...conflating candidates");
-
-						// ignore all those phrases
-						// that have empty pseudo phrases or
-						// that map to nothing in the vocabulary
-						if (!candidateNames.isEmpty()) {
-
-							for (String name : candidateNames) {
-
-								Candidate candidate = candidatesTable.get(name);
-
-								if (candidate == null) {
-									// this is the first occurrence of this
-									// candidate
-									// create a candidate object
-
-
-									firstWord = pos - i;
-									candidate = new Candidate(name, form,
-											firstWord);
-									totalFrequency++;
-									// if it's a controlled vocabulary, this
-									// allows
-									// retrieve how this topic is refered to
-									// by a descriptor
-									if (!vocabularyName.equals("none")) {
-										candidate.setTitle(vocabulary.getTerm(name));
-									}
-
-
-
-								} else {
-
-									// candidate has been observed before
-									// update its values
-									// log.info(form);
-									firstWord = pos - i;
-									candidate.recordOccurrence(form, firstWord);
-									totalFrequency++;
-
-								}
-								if (candidate != null) {
-									candidatesTable.put(name, candidate);
-								}
-							}
+				} else {
+					// if a controlled vocabulary is used
+					// retrieve its senses
+					ArrayList<String> senses = formSenses.get(form);
+					if (senses == null) {
+						senses = vocabulary.getSenses(form);
+						if (formSenses.size() < maxCachedForms) {
+							formSenses.put(form, senses);
+						}
+					}
+					if (matcher != null && !senses.isEmpty()) {
+						matcher.recordMatch();
+					}
+					for (String sense : senses) {
+						if (log.isDebugEnabled()) {
+							log.debug(form + " => " + vocabulary.getTerm(sense) + " " + this.minOccurFrequency);
 						}
+						firstWord = pos - i;
+						recordCandidate(candidatesTable, sense, form, firstWord);
+						totalFrequency++;
 					}
 				}
 			}
 		}
 
-		Set<String> keys = new HashSet<String>();
-		keys.addAll(candidatesTable.keySet());
-		for (String key : keys) {
-			Candidate candidate = candidatesTable.get(key);
+		Iterator<Candidate> iterator = candidatesTable.values().iterator();
+		while (iterator.hasNext()) {
+			Candidate candidate = iterator.next();
 			if (candidate.getFrequency() < minOccurFrequency) {
-				candidatesTable.remove(key);
+				iterator.remove();
 			} else {
 				candidate.normalize(totalFrequency, pos);
 			}
@@ -1400,6 +2354,28 @@ public class MauiFilter extends Filter {
 		return candidatesTable;
 	}
 
+	/**
+	 * Records an occurrence of a candidate, creating the candidate if this is
+	 * its first occurrence.
+	 */
+	private void recordCandidate(HashMap<String, Candidate> candidatesTable,
+			String name, String form, int firstWord) {
+
+		Candidate candidate = candidatesTable.get(name);
+		if (candidate == null) {
+			candidate = new Candidate(name, form, firstWord);
+			// if it's a controlled vocabulary, this allows
+			// retrieve how this topic is refered to by a descriptor
+			if (!vocabularyName.equals("none")) {
+				candidate.setTitle(vocabulary.getTerm(name));
+			}
+			candidatesTable.put(name, candidate);
+		} else {
+			// candidate has been observed before
+			// update its values
+			candidate.recordOccurrence(form, firstWord);
+		}
+	}
 
 	/**
 	 * Collects all the topics assigned manually and puts them into the
@@ -1407,6 +2383,19 @@ public class MauiFilter extends Filter {
 	 */
 	private HashMap<String, Counter> getGivenKeyphrases(String keyphraseListings) {
 
+		HashMap<String, Counter> keyphrases = parseKeyphrases(keyphraseListings);
+		if (keyphrases != null) {
+			totalCorrect = keyphrases.size();
+		}
+		return keyphrases;
+	}
+
+	/**
+	 * Parses the topics assigned manually, without changing the state of
+	 * this filter.
+	 */
+	private HashMap<String, Counter> parseKeyphrases(String keyphraseListings) {
+
 		HashMap<String, Counter> keyphrases = new HashMap<String, Counter>();
 
 		String keyphrase, listing;
@@ -1461,7 +2450,6 @@ public class MauiFilter extends Filter {
 			return null;
 		} else {
 			log.debug("Found " + keyphrases.size());
-			totalCorrect = keyphrases.size();
 			return keyphrases;
 		}
 	}
@@ -1473,7 +2461,7 @@ public class MauiFilter extends Filter {
 	 */
 	public String pseudoPhrase(String str) {
 
-		String result = "";
+		StringBuilder result = new StringBuilder(str.length());
 
 		str = str.toLowerCase();
 
@@ -1495,12 +2483,12 @@ public class MauiFilter extends Filter {
 				// ste	mm the remaining words
 				word = stemmer.stem(word);
 
-				result += word + " ";
+				result.append(word).append(' ');
 			}
 		}
-		result = result.trim();
-		if (!result.equals("")) {
-			return result;
+		String phrase = result.toString().trim();
+		if (!phrase.equals("")) {
+			return phrase;
 		}
 		return null;
 	}
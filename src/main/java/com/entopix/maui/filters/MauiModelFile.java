@@ -0,0 +1,247 @@
+package com.entopix.maui.filters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import weka.classifiers.Classifier;
+
+import com.entopix.maui.filters.MauiFilter.MauiFilterException;
+import com.entopix.maui.util.CountMinSketch;
+import com.entopix.maui.util.StringIntMap;
+
+/**
+ * Reads and writes extraction models in Maui's own file format.
+ *
+ * The document frequency and keyphraseness dictionaries, which make up most
+ * of a model, are stored as a table of strings followed by arrays of string
+ * indices and counts, so that they are read without going through Java
+ * serialization. The classifier and the remaining settings of the filter are
+ * stored as separately serialized blocks. The layout, all big-endian, is:
+ *
+ * <pre>
+ * int magic, int version
+ * int numStrings, numStrings x UTF string
+ * global dictionary:     int size (-1 if none), size x int string, size x int count
+ * keyphrase dictionary:  int size (-1 if none), size x int string, size x int count
+ * sketch of pruned document frequencies, since version 2:
+ *                        int width (0 if none), int depth, long total, depth x width x int cell
+ * int length, length bytes: the serialized classifier (0 bytes if none)
+ * int length, length bytes: the serialized MauiFilter without the above
+ * </pre>
+ *
+ * The text of the training documents that the phrase filters keep is not
+ * written. Because the serialVersionUID of MauiFilter is fixed, models stay
+ * readable when fields are added to it.
+ */
+public final class MauiModelFile {
+
+	/** "MAUM" */
+	private static final int MAGIC = 0x4D41554D;
+
+	private static final int VERSION = 2;
+
+	private MauiModelFile() {
+	}
+
+	/**
+	 * Checks whether a stream starts with a model in this format, leaving the
+	 * stream where it was. The stream must support mark and reset.
+	 */
+	public static boolean isModelFile(InputStream in) throws IOException {
+		in.mark(4);
+		try {
+			int magic = 0;
+			for (int i = 0; i < 4; i++) {
+				int b = in.read();
+				if (b < 0) {
+					return false;
+				}
+				magic = (magic << 8) | b;
+			}
+			return magic == MAGIC;
+		} finally {
+			in.reset();
+		}
+	}
+
+	/**
+	 * Writes a model to a stream. The stream is not closed.
+	 */
+	public static void write(MauiFilter model, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		StringIntMap global = model.getDocumentFrequencies();
+		StringIntMap keyphrases = model.getKeyphraseFrequencies();
+
+		StringIntMap ids = new StringIntMap();
+		List<String> strings = new ArrayList<String>();
+		addStrings(global, ids, strings);
+		addStrings(keyphrases, ids, strings);
+		out.writeInt(strings.size());
+		for (String string : strings) {
+			out.writeUTF(string);
+		}
+
+		writeDictionary(global, ids, out);
+		writeDictionary(keyphrases, ids, out);
+		writeSketch(model.getDocumentFrequencySketch(), out);
+		writeBlock(model.getClassifier(), out);
+		try {
+			writeBlock(model.copyWithoutModelData(), out);
+		} catch (MauiFilterException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads a model written by write. The stream is not closed.
+	 */
+	public static MauiFilter read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a Maui model file");
+		}
+		int version = in.readInt();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Unsupported Maui model file version " + version);
+		}
+
+		String[] strings = new String[in.readInt()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = in.readUTF();
+		}
+
+		StringIntMap global = readDictionary(strings, in);
+		StringIntMap keyphrases = readDictionary(strings, in);
+		CountMinSketch sketch = version >= 2 ? readSketch(in) : null;
+		Classifier classifier = (Classifier) readBlock(in);
+		MauiFilter model = (MauiFilter) readBlock(in);
+		if (model == null) {
+			throw new IOException("Maui model file without a filter");
+		}
+		model.setModelData(global, keyphrases, classifier);
+		model.setDocumentFrequencySketch(sketch);
+		return model;
+	}
+
+	private static void addStrings(StringIntMap dictionary, StringIntMap ids, List<String> strings) {
+		if (dictionary != null) {
+			for (String key : dictionary.keys()) {
+				if (!ids.containsKey(key)) {
+					ids.put(key, strings.size());
+					strings.add(key);
+				}
+			}
+		}
+	}
+
+	private static void writeDictionary(StringIntMap dictionary,
+			StringIntMap ids, DataOutputStream out) throws IOException {
+		if (dictionary == null) {
+			out.writeInt(-1);
+			return;
+		}
+		int size = dictionary.size();
+		ByteBuffer keys = ByteBuffer.allocate(4 * size);
+		ByteBuffer counts = ByteBuffer.allocate(4 * size);
+		for (String key : dictionary.keys()) {
+			keys.putInt(ids.get(key));
+			counts.putInt(dictionary.get(key));
+		}
+		out.writeInt(size);
+		out.write(keys.array());
+		out.write(counts.array());
+	}
+
+	private static StringIntMap readDictionary(String[] strings, DataInputStream in) throws IOException {
+		int size = in.readInt();
+		if (size < 0) {
+			return null;
+		}
+		int[] keys = readInts(size, in);
+		int[] counts = readInts(size, in);
+		StringIntMap dictionary = new StringIntMap(size);
+		for (int i = 0; i < size; i++) {
+			// files written while the dictionaries were HashMaps may contain
+			// the null key of stopword pseudo phrases as -1
+			if (keys[i] >= 0) {
+				dictionary.put(strings[keys[i]], counts[i]);
+			}
+		}
+		return dictionary;
+	}
+
+	private static void writeSketch(CountMinSketch sketch, DataOutputStream out) throws IOException {
+		if (sketch == null) {
+			out.writeInt(0);
+			return;
+		}
+		out.writeInt(sketch.getWidth());
+		out.writeInt(sketch.getDepth());
+		out.writeLong(sketch.getTotal());
+		ByteBuffer cells = ByteBuffer.allocate(4 * sketch.getCells().length);
+		cells.asIntBuffer().put(sketch.getCells());
+		out.write(cells.array());
+	}
+
+	private static CountMinSketch readSketch(DataInputStream in) throws IOException {
+		int width = in.readInt();
+		if (width == 0) {
+			return null;
+		}
+		int depth = in.readInt();
+		long total = in.readLong();
+		return new CountMinSketch(width, depth, readInts(width * depth, in), total);
+	}
+
+	private static int[] readInts(int size, DataInputStream in) throws IOException {
+		byte[] bytes = new byte[4 * size];
+		in.readFully(bytes);
+		int[] values = new int[size];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+		return values;
+	}
+
+	private static void writeBlock(Object object, DataOutputStream out) throws IOException {
+		if (object == null) {
+			out.writeInt(0);
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+		objectOut.writeObject(object);
+		objectOut.close();
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	private static Object readBlock(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return objectIn.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Mismatch of the class in the model file", e);
+		} finally {
+			objectIn.close();
+		}
+	}
+}
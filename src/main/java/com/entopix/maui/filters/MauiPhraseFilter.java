@@ -198,7 +198,8 @@ public class MauiPhraseFilter extends Filter implements OptionHandler {
             throw new Exception("No input instance format defined");
         }
         if (m_NewBatch) {
-            resetQueue();
+            // a fresh output format drops the texts of the previous batch
+            setOutputFormat(inputFormatPeek());
             m_NewBatch = false;
         }
         convertInstance(instance);
@@ -105,7 +105,8 @@ public class NumbersFilter extends Filter {
             throw new Exception("No input instance format defined");
         }
         if (m_NewBatch) {
-            resetQueue();
+            // a fresh output format drops the texts of the previous batch
+            setOutputFormat(inputFormatPeek());
             m_NewBatch = false;
         }
         convertInstance(instance);
@@ -130,7 +131,13 @@ public class NumbersFilter extends Filter {
         }
     }
 
-    private String filterNumbers(String inputString) {
+    /**
+     * Inserts a phrase boundary wherever a number is found in the string.
+     *
+     * @param inputString the text to filter
+     * @return the filtered text
+     */
+    public String filterNumbers(String inputString) {
         StringBuffer resultString = new StringBuffer();
         StringTokenizer tok = new StringTokenizer(inputString, " \t\n", true);
         while (tok.hasMoreTokens()) {
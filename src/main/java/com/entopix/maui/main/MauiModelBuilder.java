@@ -20,7 +20,6 @@ package com.entopix.maui.main;
  */
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -28,6 +27,7 @@ import java.util.List;
 
 import com.entopix.maui.filters.MauiFilter;
 import com.entopix.maui.filters.MauiFilter.MauiFilterException;
+import com.entopix.maui.filters.MauiModelFile;
 import com.entopix.maui.stemmers.PorterStemmer;
 import com.entopix.maui.stemmers.Stemmer;
 import com.entopix.maui.stopwords.Stopwords;
@@ -107,6 +107,10 @@ import weka.core.Utils;
  * If this option is used, the vocabulary is serialized for faster usage
  * <p>
  * 
+ * -p "number of threads"<br>
+ * Sets the number of threads used to load the vocabulary and build the model (default: 1).
+ * <p>
+ * 
  * @author Eibe Frank (eibe@cs.waikato.ac.nz), Alyona Medelyan
  * (medelyan@gmail.com)
  * @version 1.0
@@ -165,6 +169,41 @@ public class MauiModelBuilder implements OptionHandler {
 	 */
 	public int minNumOccur = 1;
 
+	/**
+	 * Number of threads used to build the model
+	 */
+	public int numThreads = 1;
+
+	/**
+	 * Minimum number of training documents a candidate must appear in to be
+	 * kept in the global dictionary
+	 */
+	public int minDocumentFrequency = 1;
+
+	/**
+	 * Maximum number of candidates kept in the global dictionary, 0 for no
+	 * limit
+	 */
+	public int maxDictionarySize = 0;
+
+	/**
+	 * Width of the sketch keeping the document frequencies of pruned
+	 * candidates, 0 to drop them
+	 */
+	public int sketchWidth = 0;
+
+	/**
+	 * Depth of the sketch keeping the document frequencies of pruned
+	 * candidates
+	 */
+	public int sketchDepth = 4;
+
+	/**
+	 * Build the model in two passes over the training files instead of
+	 * keeping them in memory
+	 */
+	public boolean streaming = false;
+
 	/**
 	 * Classifier
 	 */
@@ -241,6 +280,7 @@ public class MauiModelBuilder implements OptionHandler {
 			vocabulary.setLanguage(documentLanguage);
 			// make serialize global var
 			vocabulary.setSerialize(serialize);
+			vocabulary.setNumThreads(numThreads);
 			vocabulary.initializeVocabulary(vocabularyName, vocabularyFormat);
 
 		} catch (Exception e) {
@@ -253,6 +293,14 @@ public class MauiModelBuilder implements OptionHandler {
 		this.vocabulary = vocabulary;
 	}
 
+	/**
+	 * Sets the classifier trained on the candidate features, instead of the
+	 * default bagged J48 trees.
+	 */
+	public void setClassifier(Classifier classifier) {
+		this.classifier = classifier;
+	}
+
 	public void setBasicFeatures(boolean useBasicFeatures) {
 		this.useBasicFeatures = useBasicFeatures;
 	}
@@ -335,6 +383,29 @@ public class MauiModelBuilder implements OptionHandler {
 	 * Sets stemmer to use (default: IteratedLovinsStemmer).
 	 * <p>
 	 *
+	 * -p "number of threads"<br>
+	 * Sets the number of threads used to load the vocabulary and build the model (default: 1).
+	 * <p>
+	 *
+	 * -c "number"<br>
+	 * Prunes candidates that appear in fewer training documents from the
+	 * global dictionary (default: 1).
+	 * <p>
+	 *
+	 * -g "size"<br>
+	 * Keeps at most this many candidates in the global dictionary (default: 0, no limit).
+	 * <p>
+	 *
+	 * -w "width"<br>
+	 * Keeps the document frequencies of pruned candidates in a count-min
+	 * sketch of this width (default: 0, no sketch).
+	 * <p>
+	 *
+	 * -b<br>
+	 * Builds the model in two passes over the training files, without
+	 * keeping them in memory.
+	 * <p>
+	 *
 	 * @param options the list of options as an array of strings
 	 * @exception Exception if an option is not supported
 	 */
@@ -416,7 +487,24 @@ public class MauiModelBuilder implements OptionHandler {
 			stemmerString = "com.entopix.maui.stemmers.".concat(stemmerString);
 			this.stemmer = (Stemmer) Class.forName(stemmerString).newInstance();
 		}
+		String numThreadsString = Utils.getOption('p', options);
+		if (numThreadsString.length() > 0) {
+			this.numThreads = Integer.parseInt(numThreadsString);
+		}
+		String minDocumentFrequencyString = Utils.getOption('c', options);
+		if (minDocumentFrequencyString.length() > 0) {
+			this.minDocumentFrequency = Integer.parseInt(minDocumentFrequencyString);
+		}
+		String maxDictionarySizeString = Utils.getOption('g', options);
+		if (maxDictionarySizeString.length() > 0) {
+			this.maxDictionarySize = Integer.parseInt(maxDictionarySizeString);
+		}
+		String sketchWidthString = Utils.getOption('w', options);
+		if (sketchWidthString.length() > 0) {
+			this.sketchWidth = Integer.parseInt(sketchWidthString);
+		}
 		this.serialize = Utils.getFlag('z', options);
+		this.streaming = Utils.getFlag('b', options);
 		Utils.checkForRemainingOptions(options);
 	}
 
@@ -428,7 +516,7 @@ public class MauiModelBuilder implements OptionHandler {
 	@Override
 	public String[] getOptions() {
 
-		String[] options = new String[23];
+		String[] options = new String[32];
 		int current = 0;
 
 		options[current++] = "-l";
@@ -454,6 +542,17 @@ public class MauiModelBuilder implements OptionHandler {
 		options[current++] = "" + (stopwords.getClass().getName());
 		options[current++] = "-t";
 		options[current++] = "" + (stemmer.getClass().getName());
+		options[current++] = "-p";
+		options[current++] = "" + (this.numThreads);
+		options[current++] = "-c";
+		options[current++] = "" + (this.minDocumentFrequency);
+		options[current++] = "-g";
+		options[current++] = "" + (this.maxDictionarySize);
+		options[current++] = "-w";
+		options[current++] = "" + (this.sketchWidth);
+		if (this.streaming) {
+			options[current++] = "-b";
+		}
 
 		while (current < options.length) {
 			options[current++] = "";
@@ -469,7 +568,7 @@ public class MauiModelBuilder implements OptionHandler {
 	@Override
 	public Enumeration<Option> listOptions() {
 
-		ArrayList<Option> newVector = new ArrayList<Option>(12);
+		ArrayList<Option> newVector = new ArrayList<Option>(13);
 
 		newVector.add(new Option("\tSpecifies name of directory.", "l",
 				1, "-l <directory name>"));
@@ -503,11 +602,29 @@ public class MauiModelBuilder implements OptionHandler {
 		newVector.add(new Option(
 				"\tSet the stemmer to use (default: SremovalStemmer).", "t", 1,
 				"-t <name of stemmer class>"));
+		newVector.add(new Option(
+				"\tSets the number of threads used to load the vocabulary and build the model (default: 1).", "p", 1,
+				"-p <number of threads>"));
+		newVector.add(new Option(
+				"\tSets the minimum number of training documents of a candidate in the global dictionary (default: 1).", "c", 1,
+				"-c <number>"));
+		newVector.add(new Option(
+				"\tSets the maximum number of candidates in the global dictionary (default: 0, no limit).", "g", 1,
+				"-g <size>"));
+		newVector.add(new Option(
+				"\tSets the width of the sketch of pruned document frequencies (default: 0, no sketch).", "w", 1,
+				"-w <width>"));
+		newVector.add(new Option(
+				"\tBuilds the model in two passes over the training files, without keeping them in memory.", "b", 0,
+				"-b"));
 
 		return Collections.enumeration(newVector);
 	}
 
 	public MauiFilter buildModel() throws MauiFilterException {
+		if (streaming) {
+			return buildModelStreaming(DataLoader.streamDocuments(inputDirectoryName));
+		}
 		List<MauiDocument> testDocuments = DataLoader.loadTestDocuments(inputDirectoryName);
 		return buildModel(testDocuments);
 	}
@@ -520,6 +637,63 @@ public class MauiModelBuilder implements OptionHandler {
 
 		log.info("-- Building the model... ");
 
+		Instances data = createFilter();
+
+		log.info("-- Adding documents as instances... ");
+
+		for (MauiDocument document : documents) {
+
+			double[] newInst = new double[3];
+			newInst[0] = data.attribute(0).addStringValue(document.getFileName());
+
+			// Adding the text and the topics for the document to the instance
+			if (document.getTextContent().length() > 0) {
+				newInst[1] = data.attribute(1).addStringValue(document.getTextContent());
+			} else {
+				newInst[1] = Instance.missingValue();
+			}
+
+			if (document.getTopicsString().length() > 0) {
+				newInst[2] = data.attribute(2).addStringValue(document.getTopicsString());
+			} else {
+				newInst[2] = Instance.missingValue();
+			}
+
+			data.add(new Instance(1.0, newInst));
+
+			mauiFilter.input(data.instance(0));
+			data = data.stringFreeStructure();
+		}
+		log.info("-- Building the model... ");
+
+		mauiFilter.batchFinished();
+
+		return mauiFilter;
+
+	}
+
+	/**
+	 * Builds the model in two passes over the training data, without keeping
+	 * the documents in memory. The documents are iterated twice, so they can
+	 * be read from disk as they are needed, as streamDocuments does.
+	 * @throws MauiFilterException 
+	 */
+	public MauiFilter buildModelStreaming(Iterable<MauiDocument> documents) throws MauiFilterException {
+
+		log.info("-- Building the model in two passes... ");
+
+		createFilter();
+		mauiFilter.buildModel(documents);
+		return mauiFilter;
+	}
+
+	/**
+	 * Creates the filter with the settings of this builder and returns the
+	 * empty training data it expects.
+	 * @throws MauiFilterException 
+	 */
+	private Instances createFilter() throws MauiFilterException {
+
 		FastVector atts = new FastVector(3);
 		atts.addElement(new Attribute("filename", (FastVector) null));
 		atts.addElement(new Attribute("document", (FastVector) null));
@@ -530,6 +704,11 @@ public class MauiModelBuilder implements OptionHandler {
 		mauiFilter.setMaxPhraseLength(maxPhraseLength);
 		mauiFilter.setMinPhraseLength(minPhraseLength);
 		mauiFilter.setMinNumOccur(minNumOccur);
+		mauiFilter.setNumThreads(numThreads);
+		mauiFilter.setTrainingOnly(true);
+		mauiFilter.setMinDocumentFrequency(minDocumentFrequency);
+		mauiFilter.setMaxDictionarySize(maxDictionarySize);
+		mauiFilter.setSketchSize(sketchWidth, sketchDepth);
 		mauiFilter.setStemmer(stemmer);
 		mauiFilter.setDocumentLanguage(documentLanguage);
 		mauiFilter.setVocabularyName(vocabularyName);
@@ -559,54 +738,22 @@ public class MauiModelBuilder implements OptionHandler {
 			mauiFilter.setVocabulary(vocabulary);
 		}
 
-		log.info("-- Adding documents as instances... ");
-
-		for (MauiDocument document : documents) {
-
-			double[] newInst = new double[3];
-			newInst[0] = data.attribute(0).addStringValue(document.getFileName());
-
-			// Adding the text and the topics for the document to the instance
-			if (document.getTextContent().length() > 0) {
-				newInst[1] = data.attribute(1).addStringValue(document.getTextContent());
-			} else {
-				newInst[1] = Instance.missingValue();
-			}
-
-			if (document.getTopicsString().length() > 0) {
-				newInst[2] = data.attribute(2).addStringValue(document.getTopicsString());
-			} else {
-				newInst[2] = Instance.missingValue();
-			}
-
-			data.add(new Instance(1.0, newInst));
-
-			mauiFilter.input(data.instance(0));
-			data = data.stringFreeStructure();
-		}
-		log.info("-- Building the model... ");
-
-		mauiFilter.batchFinished();
-
-		while ((mauiFilter.output()) != null) {
-		}
-
-		return mauiFilter;
-
+		return data;
 	}
 
 	/**
-	 * Saves the extraction model to the file.
+	 * Saves the extraction model to the file, in the format of MauiModelFile.
 	 * @param mauiFilter 
 	 */
 	public void saveModel(MauiFilter mauiFilter) throws Exception {
 
 		BufferedOutputStream bufferedOut = new BufferedOutputStream(
 				new FileOutputStream(modelName));
-		ObjectOutputStream out = new ObjectOutputStream(bufferedOut);
-		out.writeObject(mauiFilter);
-		out.flush();
-		out.close();
+		try {
+			MauiModelFile.write(mauiFilter, bufferedOut);
+		} finally {
+			bufferedOut.close();
+		}
 	}
 
 	/**
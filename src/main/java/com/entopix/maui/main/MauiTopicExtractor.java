@@ -9,6 +9,12 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 import com.entopix.maui.filters.MauiFilter;
 import com.entopix.maui.filters.MauiFilter.MauiFilterException;
 import com.entopix.maui.stemmers.PorterStemmer;
@@ -20,6 +26,7 @@ import com.entopix.maui.util.Evaluator;
 import com.entopix.maui.util.MauiDocument;
 import com.entopix.maui.util.MauiTopics;
 import com.entopix.maui.util.Topic;
+import com.entopix.maui.vocab.PhraseIndex;
 import com.entopix.maui.vocab.Vocabulary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,6 +94,13 @@ import weka.core.Utils;
  * -c<br>
  * Cut off threshold for the topic probability.<p>
  *
+ * -p "number of threads"<br>
+ * Extracts topics from several documents at once (default: 1).<p>
+ *
+ * -k "candidate budget"<br>
+ * Number of candidates per document scored by the classifier, those ranked
+ * best by TFxIDF, first occurrence or keyphraseness (default: 0, all).<p>
+ *
  * @author Eibe Frank (eibe@cs.waikato.ac.nz), zelandiya (medelyan@gmail.com)
  * 
  * @version 1.3
@@ -137,6 +151,11 @@ public class MauiTopicExtractor implements OptionHandler {
 	 */
 	public double cutOffTopicProbability = 0.0;
 
+	/**
+	 * Number of candidates of a document scored by the classifier, 0 for all
+	 */
+	public int candidateBudget = 0;
+
 	/**
 	 * Maui filter object
 	 */
@@ -173,6 +192,11 @@ public class MauiTopicExtractor implements OptionHandler {
 	 */
 	boolean buildGlobalDictionary = false;
 
+	/**
+	 * Number of threads used to extract topics
+	 */
+	public int numThreads = 1;
+
 	/**
 	 * Parses a given list of options controlling the behaviour of this object.
 	 * Valid options are:
@@ -225,6 +249,12 @@ public class MauiTopicExtractor implements OptionHandler {
 	 * -c<br>
 	 * Cut off threshold for the topic probability.<p>
 	 *
+	 * -p "number of threads"<br>
+	 * Extracts topics from several documents at once (default: 1).<p>
+	 *
+	 * -k "candidate budget"<br>
+	 * Number of candidates per document scored by the classifier (default: 0, all).<p>
+	 *
 	 * @param options the list of options as an array of strings
 	 * @exception Exception if an option is not supported
 	 */
@@ -307,6 +337,16 @@ public class MauiTopicExtractor implements OptionHandler {
 			this.cutOffTopicProbability = Double.parseDouble(cutOffProbability);
 		}
 
+		String numThreads = Utils.getOption('p', options);
+		if (numThreads.length() > 0) {
+			this.numThreads = Integer.parseInt(numThreads);
+		}
+
+		String candidateBudget = Utils.getOption('k', options);
+		if (candidateBudget.length() > 0) {
+			this.candidateBudget = Integer.parseInt(candidateBudget);
+		}
+
 		Utils.checkForRemainingOptions(options);
 	}
 
@@ -318,7 +358,7 @@ public class MauiTopicExtractor implements OptionHandler {
 	@Override
 	public String[] getOptions() {
 
-		String[] options = new String[22];
+		String[] options = new String[26];
 		int current = 0;
 
 		options[current++] = "-l";
@@ -337,6 +377,10 @@ public class MauiTopicExtractor implements OptionHandler {
 		options[current++] = "" + (this.topicsPerDocument);
 		options[current++] = "-c";
 		options[current++] = "" + (this.cutOffTopicProbability);
+		options[current++] = "-p";
+		options[current++] = "" + (this.numThreads);
+		options[current++] = "-k";
+		options[current++] = "" + (this.candidateBudget);
 		options[current++] = "-t";
 		options[current++] = "" + (stemmer.getClass().getName());
 		options[current++] = "-s";
@@ -377,7 +421,7 @@ public class MauiTopicExtractor implements OptionHandler {
 	@Override
 	public Enumeration<Option> listOptions() {
 
-		Vector<Option> newVector = new Vector<Option>(13);
+		Vector<Option> newVector = new Vector<Option>(14);
 
 		newVector.addElement(new Option(
 				"\tSpecifies name of directory.",
@@ -403,6 +447,12 @@ public class MauiTopicExtractor implements OptionHandler {
 		newVector.addElement(new Option(
 				"\tSpecifies cut off probability for each topic (default: 0.0).",
 				"c", 1, "-c"));
+		newVector.addElement(new Option(
+				"\tSpecifies number of threads used to load the vocabulary and extract topics (default: 1).",
+				"p", 1, "-p <number of threads>"));
+		newVector.addElement(new Option(
+				"\tSpecifies number of candidates per document scored by the classifier (default: 0, all).",
+				"k", 1, "-k <candidate budget>"));
 		newVector.addElement(new Option(
 				"\tSet the stemmer to use (default: SremovalStemmer).",
 				"t", 1, "-t <name of stemmer class>"));
@@ -437,6 +487,7 @@ public class MauiTopicExtractor implements OptionHandler {
 			}
 			vocabulary.setLanguage(documentLanguage);
 			vocabulary.setSerialize(serialize);
+			vocabulary.setNumThreads(numThreads);
 			vocabulary.initializeVocabulary(vocabularyName, vocabularyFormat);
 
 		} catch (Exception e) {
@@ -460,6 +511,35 @@ public class MauiTopicExtractor implements OptionHandler {
 	 */
 	public List<MauiTopics> extractTopics(List<MauiDocument> documents) throws MauiFilterException {
 
+		if (numThreads > 1 && mauiFilter.getDocumentFrequencies() != null) {
+			ForkJoinPool pool = new ForkJoinPool(numThreads);
+			try {
+				return extractTopics(documents, pool);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		// Only the top ranked candidates of each document are collected
+		// below. The model may be shared, so its own settings are restored
+		int previousTopicsPerDocument = mauiFilter.getTopicsPerDocument();
+		int previousCandidateBudget = mauiFilter.getCandidateBudget();
+		mauiFilter.setTopicsPerDocument(topicsPerDocument);
+		mauiFilter.setCandidateBudget(candidateBudget);
+		try {
+			return extractQueuedTopics(documents);
+		} finally {
+			mauiFilter.setTopicsPerDocument(previousTopicsPerDocument);
+			mauiFilter.setCandidateBudget(previousCandidateBudget);
+		}
+	}
+
+	/**
+	 * Extracts topics from all documents through the input and output queue
+	 * of the filter.
+	 */
+	private List<MauiTopics> extractQueuedTopics(List<MauiDocument> documents) throws MauiFilterException {
+
 		List<MauiTopics> allDocumentTopics = new ArrayList<MauiTopics>();
 
 		// Weka data structures
@@ -544,11 +624,92 @@ public class MauiTopicExtractor implements OptionHandler {
 		}
 
 		mauiFilter.batchFinished();
+		logPhraseIndexCounts();
 		return allDocumentTopics;
 	}
 
 
 
+	/**
+	 * Extracts topics from all documents using the given executor. The model,
+	 * vocabulary and global dictionary are shared by all tasks, so the model
+	 * has to be built already.
+	 *
+	 * @param documents the documents
+	 * @param executor the executor running one task per document
+	 * @return the topics of each document, in the order of the documents
+	 * @throws MauiFilterException
+	 */
+	public List<MauiTopics> extractTopics(List<MauiDocument> documents,
+			ExecutorService executor) throws MauiFilterException {
+
+		log.info("-- Extracting keyphrases... ");
+
+		List<Future<MauiTopics>> futures = new ArrayList<Future<MauiTopics>>(documents.size());
+		for (final MauiDocument document : documents) {
+			futures.add(executor.submit(new Callable<MauiTopics>() {
+				@Override
+				public MauiTopics call() throws MauiFilterException {
+					return extractDocumentTopics(document);
+				}
+			}));
+		}
+
+		List<MauiTopics> allDocumentTopics = new ArrayList<MauiTopics>(documents.size());
+		try {
+			for (Future<MauiTopics> future : futures) {
+				allDocumentTopics.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw mauiFilter.new MauiFilterException("Interrupted while extracting topics");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof MauiFilterException) {
+				throw (MauiFilterException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		logPhraseIndexCounts();
+		return allDocumentTopics;
+	}
+
+	/**
+	 * Logs how many phrases of the documents the phrase index of the
+	 * vocabulary has ruled out so far.
+	 */
+	private void logPhraseIndexCounts() {
+		if (vocabulary != null && !vocabularyName.equals("none")) {
+			PhraseIndex phraseIndex = vocabulary.getPhraseIndex();
+			if (phraseIndex != null) {
+				log.info("-- Phrase index: " + phraseIndex);
+			}
+		}
+	}
+
+	/**
+	 * Extracts topics from a single document without using the filter queue.
+	 */
+	private MauiTopics extractDocumentTopics(MauiDocument document) throws MauiFilterException {
+
+		log.info("-- Processing document: " + document.getFileName());
+
+		String manualTopics = null;
+		if (document.getTopicsString().length() > 0) {
+			manualTopics = document.getTopicsString();
+		}
+
+		MauiTopics documentTopics = new MauiTopics(document.getFilePath());
+		documentTopics.setPossibleCorrect(document.getTopicsString().split("\n").length);
+
+		for (Topic extracted : mauiFilter.extractTopics(document.getTextContent(),
+				manualTopics, topicsPerDocument, candidateBudget, cutOffTopicProbability)) {
+			Topic topic = new Topic(extracted.getTitle(), "1", extracted.getProbability());
+			topic.setCorrectness(extracted.isCorrect());
+			documentTopics.addTopic(topic);
+		}
+		return documentTopics;
+	}
+
 	/**
 	 * Loads the extraction model from the file.
 	 */
@@ -559,7 +720,8 @@ public class MauiTopicExtractor implements OptionHandler {
 		// If TFxIDF values are to be computed from the test corpus
 		if (buildGlobalDictionary == true) {
 			log.info("-- The global dictionaries will be built from this test collection..");
-			mauiFilter.globalDictionary = null;
+			mauiFilter.setDocumentFrequencies(null);
+			mauiFilter.setTrainingOnly(false);
 		}
 		
 
@@ -4,6 +4,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import org.apache.commons.io.FileUtils;
 //import org.apache.log4j.BasicConfigurator;
@@ -20,10 +24,7 @@ import com.entopix.maui.vocab.Vocabulary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import weka.core.Attribute;
-import weka.core.FastVector;
-import weka.core.Instance;
-import weka.core.Instances;
+import weka.core.Utils;
 
 /**
  * This class shows how to use Maui on a single document or just a string of
@@ -42,8 +43,34 @@ public final class MauiWrapper {
     private final Stopwords stopwords = StopwordsFactory.makeStopwords(language);
     
     // these need to be loaded either from a file, or from a pre-loaded object
-    private MauiFilter extractionModel = null;
-    private Vocabulary vocabulary = null;
+    private final AtomicReference<Deployment> deployment = new AtomicReference<Deployment>();
+
+    // settings used to load vocabularies in the constructor and in reload()
+    private final Stemmer vocabularyStemmer;
+    private final Stopwords vocabularyStopwords;
+    private final String vocabularyLanguage;
+
+    // the last values passed to setModelParameters, applied to swapped in models
+    private String modelVocabularyName = null;
+    private Stemmer modelStemmer = null;
+    private Stopwords modelStopwords = null;
+    private String modelLanguage = null;
+
+    /**
+     * A model with its vocabulary. Extraction reads the current deployment
+     * once, so a request started before a swap finishes with the old model.
+     */
+    private static final class Deployment {
+        final MauiFilter model;
+        final Vocabulary vocabulary;
+        final long version;
+
+        Deployment(MauiFilter model, Vocabulary vocabulary, long version) {
+            this.model = model;
+            this.vocabulary = vocabulary;
+            this.version = version;
+        }
+    }
     
     /**
      * Constructor to initialize MauiWrapper with default
@@ -62,26 +89,11 @@ public final class MauiWrapper {
      * @param language
      */
     public MauiWrapper(String modelName, String vocabularyName, String vocabularyFormat, Stopwords stopwords, Stemmer stemmer, String language) {
-    	if (!vocabularyName.equals("none")) {
-	    	this.vocabulary = new Vocabulary();
-	    	if (stemmer != null)
-	    		vocabulary.setStemmer(stemmer);
-	    	else
-	    		vocabulary.setStemmer(this.stemmer);
-	    	
-	    	if (language != null)
-	    		vocabulary.setLanguage(language);
-	    	else
-	    		vocabulary.setLanguage(this.language);
-	    	
-	    	if (stopwords != null)
-	            vocabulary.setStopwords(stopwords);
-	        else
-	        	vocabulary.setStopwords(this.stopwords);
-	    	
-	    	vocabulary.initializeVocabulary(vocabularyName, vocabularyFormat);
-    	}
-    	this.extractionModel = DataLoader.loadModel(modelName);
+    	this.vocabularyStemmer = stemmer;
+    	this.vocabularyStopwords = stopwords;
+    	this.vocabularyLanguage = language;
+    	Vocabulary vocabulary = loadVocabulary(vocabularyName, vocabularyFormat);
+    	deployment.set(new Deployment(DataLoader.loadModel(modelName), vocabulary, 1));
     }
     
     /**
@@ -93,35 +105,69 @@ public final class MauiWrapper {
      * @param model Pre-loaded model
      */
     public MauiWrapper(Vocabulary vocab, MauiFilter model) {
-        this.vocabulary = vocab;                
-        this.extractionModel = model;
+        this.vocabularyStemmer = null;
+        this.vocabularyStopwords = null;
+        this.vocabularyLanguage = null;
+        deployment.set(new Deployment(model, vocab, 1));
     }
-    
-    
 
-    
+    private Vocabulary loadVocabulary(String vocabularyName, String vocabularyFormat) {
+    	if (vocabularyName.equals("none")) {
+    		return null;
+    	}
+    	Vocabulary vocabulary = new Vocabulary();
+    	if (vocabularyStemmer != null)
+    		vocabulary.setStemmer(vocabularyStemmer);
+    	else
+    		vocabulary.setStemmer(this.stemmer);
+
+    	if (vocabularyLanguage != null)
+    		vocabulary.setLanguage(vocabularyLanguage);
+    	else
+    		vocabulary.setLanguage(this.language);
+
+    	if (vocabularyStopwords != null)
+    		vocabulary.setStopwords(vocabularyStopwords);
+    	else
+    		vocabulary.setStopwords(this.stopwords);
+
+    	vocabulary.initializeVocabulary(vocabularyName, vocabularyFormat);
+    	return vocabulary;
+    }
 
     /**
-     * Assigns the vocabulary to model
+     * Assigns the vocabulary to model. The model in use is not changed, as
+     * other threads may be extracting topics with it. A copy is configured
+     * instead and swapped in, see swap().
      * @param vocabularyName
      * @param stemmer
      * @param stopwords
      * @param language
+     * @throws MauiFilterException if the model cannot be copied
      */
-    public void setModelParameters(String vocabularyName, Stemmer stemmer, Stopwords stopwords, String language) {
+    public synchronized void setModelParameters(String vocabularyName, Stemmer stemmer, Stopwords stopwords, String language) throws MauiFilterException {
+    	this.modelVocabularyName = vocabularyName;
+    	this.modelStemmer = stemmer;
+    	this.modelStopwords = stopwords;
+    	this.modelLanguage = language;
+    	Deployment current = deployment.get();
+    	swap(current.vocabulary, current.model.copy(), null);
+    }
+
+    private void configureModel(MauiFilter extractionModel, Vocabulary vocabulary, String vocabularyName) {
     	
-    	if (stemmer != null)
-    		extractionModel.setStemmer(stemmer);
+    	if (modelStemmer != null)
+    		extractionModel.setStemmer(modelStemmer);
     	else
     		extractionModel.setStemmer(this.stemmer);
     	
-    	if (language != null)
-    		extractionModel.setDocumentLanguage(language);
+    	if (modelLanguage != null)
+    		extractionModel.setDocumentLanguage(modelLanguage);
     	else
     		extractionModel.setDocumentLanguage(this.language);
     
-    	if (stopwords != null)
-            extractionModel.setStopwords(stopwords);
+    	if (modelStopwords != null)
+            extractionModel.setStopwords(modelStopwords);
         else
         	extractionModel.setStopwords(this.stopwords);
        
@@ -134,7 +180,76 @@ public final class MauiWrapper {
     }
 
     /**
-     * Main method to extract the main topics from a given text
+     * Replaces the model and vocabulary used for extraction. If
+     * setModelParameters was called before, the new model is configured with
+     * the same parameters. Requests that have already started finish with
+     * the previous model, later requests use the new one.
+     *
+     * @param vocab Pre-loaded vocabulary, null if no vocabulary is used
+     * @param model Pre-loaded model
+     * @return the version of the new model, counting the initial one as 1
+     */
+    public long swap(Vocabulary vocab, MauiFilter model) {
+    	return swap(vocab, model, null);
+    }
+
+    /**
+     * Configures the model if setModelParameters was called, with the given
+     * vocabulary name or, if null, that of the previous model, and publishes
+     * it with the vocabulary.
+     */
+    private synchronized long swap(Vocabulary vocab, MauiFilter model, String vocabularyName) {
+    	if (modelVocabularyName != null) {
+    		if (vocabularyName != null) {
+    			modelVocabularyName = vocabularyName;
+    		}
+    		configureModel(model, vocab, modelVocabularyName);
+    	}
+    	long version = deployment.get().version + 1;
+    	deployment.set(new Deployment(model, vocab, version));
+    	log.info("Using model version " + version);
+    	return version;
+    }
+
+    /**
+     * Loads a model and a vocabulary in the background and swaps them in
+     * when both are ready, see swap(). The vocabulary is loaded with the
+     * stemmer, stopwords and language given to the constructor, and the
+     * current model keeps serving requests in the meantime.
+     *
+     * @param executor runs the loading
+     * @return the version of the new model, once it is in use
+     */
+    public CompletableFuture<Long> reload(final String modelName, final String vocabularyName,
+    		final String vocabularyFormat, Executor executor) {
+    	return CompletableFuture.supplyAsync(new Supplier<Long>() {
+    		public Long get() {
+    			Vocabulary vocabulary = loadVocabulary(vocabularyName, vocabularyFormat);
+    			MauiFilter model = DataLoader.loadModel(modelName);
+    			return swap(vocabulary, model, vocabularyName);
+    		}
+    	}, executor);
+    }
+
+    /**
+     * Returns the version of the model in use, counting the initial one as 1
+     */
+    public long getVersion() {
+    	return deployment.get().version;
+    }
+
+    public MauiFilter getModel() {
+    	return deployment.get().model;
+    }
+
+    public Vocabulary getVocabulary() {
+    	return deployment.get().vocabulary;
+    }
+
+    /**
+     * Main method to extract the main topics from a given text.
+     * The model is only read, so this method can be called by several
+     * threads at once, also while a new model is swapped in.
      *
      * @param text
      * @param topicsPerDocument
@@ -147,79 +262,8 @@ public final class MauiWrapper {
             log.warn("Text is too short: " + text.length() + " characters.");
         }
 
-        FastVector atts = new FastVector(3);
-        atts.addElement(new Attribute("filename", (FastVector) null));
-        atts.addElement(new Attribute("doc", (FastVector) null));
-        atts.addElement(new Attribute("keyphrases", (FastVector) null));
-        Instances data = new Instances("keyphrase_training_data", atts, 0);
-
-        double[] newInst = new double[3];
-
-        newInst[0] = data.attribute(0).addStringValue("inputFile");
-        newInst[1] = data.attribute(1).addStringValue(text);
-        newInst[2] = Instance.missingValue();
-        data.add(new Instance(1.0, newInst));
-
-        extractionModel.input(data.instance(0));
-
-        data = data.stringFreeStructure();
-        Instance[] topRankedInstances = new Instance[topicsPerDocument];
-        Instance inst;
-        int index = 0;
-        // Iterating over all extracted keyphrases (inst)
-        while ((inst = extractionModel.output()) != null) {
-        	
-        	double probability = inst.value(extractionModel.getProbabilityIndex());
-            if (index < topicsPerDocument) {
-             	if (probability > 0) {
-             		topRankedInstances[index] = inst;
-             		index++;
-             	}
-            }
-         }
-
-        ArrayList<Topic> topics = new ArrayList<Topic>();
-
-        for (int i = 0; i < topicsPerDocument; i++) {
-            if (topRankedInstances[i] != null) {
-            	double probability = topRankedInstances[i].value(extractionModel.getProbabilityIndex());
-                String topic = topRankedInstances[i].stringValue(extractionModel.getOutputFormIndex());
-                String id = "";
-                if (vocabulary != null) {
-                	id = vocabulary.getFormatedName(topRankedInstances[i].stringValue(0));
-                }
-                topics.add(new Topic(topic, id, probability));
-
-                /**
-                 * Indices of attributes in classifierData
-        // General features
-                // 2 term frequency
-                // 3 inverse document frequency
-                // 4 TFxIDF
-                // 5 position of the first occurrence
-                // 6 position of the last occurrence
-                // 7 spread of occurrences
-                // 8 domain keyphraseness
-                // 9 term length
-                // 10 generality
-                // 11 node degree
-                String features = "";
-                for (int j = 2; j < 11; j++) {
-                    double value = topRankedInstances[i].value(j);
-                    if (value < 1) {
-                        value = Math.round(value * 100.0) / 100.0;
-                    } else {
-                        value = Math.round(value);
-                    }
-                    features = features + value + ' ';
-                }
-                topics.add(topic + " #" + vocabulary.getFormatedName(topRankedInstances[i].stringValue(0)) + " >> " + features);
-                         */
-		
-            }
-        }
-        extractionModel.batchFinished();
-        return topics;
+        Deployment current = deployment.get();
+        return toResults(current.model.extractTopics(text, null, topicsPerDocument, 0), current.vocabulary);
     }
 
     /* Main method to extract the main topics from a given text
@@ -234,46 +278,23 @@ public final class MauiWrapper {
             throw new Exception("Text is too short!");
         }
 
-        FastVector atts = new FastVector(3);
-        atts.addElement(new Attribute("filename", (FastVector) null));
-        atts.addElement(new Attribute("doc", (FastVector) null));
-        atts.addElement(new Attribute("keyphrases", (FastVector) null));
-        Instances data = new Instances("keyphrase_training_data", atts, 0);
-
-        double[] newInst = new double[3];
-
-        newInst[0] = data.attribute(0).addStringValue("inputFile");
-        newInst[1] = data.attribute(1).addStringValue(text);
-        newInst[2] = Instance.missingValue();
-        data.add(new Instance(1.0, newInst));
-
-        extractionModel.input(data.instance(0));
-
-        data = data.stringFreeStructure();
-        Instance[] topRankedInstances = new Instance[topicsPerDocument];
-        Instance inst;
-
-        // Iterating over all extracted keyphrases (inst)
-        while ((inst = extractionModel.output()) != null) {
-
-            int index = (int) inst.value(extractionModel.getRankIndex()) - 1;
-
-            if (index < topicsPerDocument) {
-                topRankedInstances[index] = inst;
-            }
-        }
-
-        List<Topic> topics = new ArrayList<Topic>();
+        Deployment current = deployment.get();
+        return toResults(current.model.extractTopics(text, null, topicsPerDocument, Utils.SMALL), current.vocabulary);
+    }
 
-        for (int i = 0; i < topicsPerDocument; i++) {
-            if (topRankedInstances[i] != null) {
-                String id = vocabulary.getFormatedName(topRankedInstances[i].stringValue(0));
-                String title = topRankedInstances[i].stringValue(extractionModel.getOutputFormIndex());
-                double probability = topRankedInstances[i].value(extractionModel.getProbabilityIndex());
-                topics.add(new Topic(title, id, probability));
+    /**
+     * Replaces the candidate names returned by the model with the
+     * formatted vocabulary names
+     */
+    private static ArrayList<Topic> toResults(List<Topic> extracted, Vocabulary vocabulary) {
+        ArrayList<Topic> topics = new ArrayList<Topic>(extracted.size());
+        for (Topic topic : extracted) {
+            String id = "";
+            if (vocabulary != null) {
+                id = vocabulary.getFormatedName(topic.getId());
             }
+            topics.add(new Topic(topic.getTitle(), id, topic.getProbability()));
         }
-        extractionModel.batchFinished();
         return topics;
     }
 
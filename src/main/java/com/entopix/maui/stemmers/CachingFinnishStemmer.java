@@ -1,12 +1,12 @@
 package com.entopix.maui.stemmers;
 
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.puimula.libvoikko.Analysis;
 import org.puimula.libvoikko.Voikko;
 
+import com.entopix.maui.util.LRUCache;
+
 public class CachingFinnishStemmer extends Stemmer {
 	private static final long serialVersionUID = 1L;
 
@@ -54,20 +54,5 @@ public class CachingFinnishStemmer extends Stemmer {
 	
 		return stemmed;
 	}
-	
-	private class LRUCache<K, V> extends LinkedHashMap<K, V> {
-		private static final long serialVersionUID = 1L;
-		
-		private int cacheSize;
-
-		public LRUCache(int cacheSize) {
-			super(16, 0.75f, true);
-			this.cacheSize = cacheSize;
-		}
-
-		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-			return size() >= cacheSize;
-		}
-	}
 
 }
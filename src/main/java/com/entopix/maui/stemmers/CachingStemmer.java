@@ -0,0 +1,54 @@
+package com.entopix.maui.stemmers;
+
+import com.entopix.maui.util.LRUCache;
+
+/**
+ * Remembers the stems computed by another stemmer, so that words seen in
+ * earlier documents are not stemmed again. The least recently used words
+ * are forgotten once the cache is full. Can be used by several threads at
+ * once if the wrapped stemmer can.
+ */
+public class CachingStemmer extends Stemmer {
+	private static final long serialVersionUID = 1L;
+
+	public static final int DEFAULT_LRU_CACHE_SIZE = 100000;
+
+	private final Stemmer stemmer;
+
+	private final int cacheSize;
+
+	private transient LRUCache<String, String> cache;
+
+	public CachingStemmer(Stemmer stemmer) {
+		this(stemmer, DEFAULT_LRU_CACHE_SIZE);
+	}
+
+	public CachingStemmer(Stemmer stemmer, int cacheSize) {
+		this.stemmer = stemmer;
+		this.cacheSize = cacheSize;
+	}
+
+	@Override
+	public String stem(String str) {
+		String stemmed;
+		synchronized (this) {
+			if (cache == null) {
+				cache = new LRUCache<String, String>(cacheSize);
+			}
+			stemmed = cache.get(str);
+		}
+
+		if (stemmed == null) {
+			stemmed = stemmer.stem(str);
+			synchronized (this) {
+				cache.put(str, stemmed);
+			}
+		}
+		return stemmed;
+	}
+
+	public Stemmer getStemmer() {
+		return stemmer;
+	}
+
+}
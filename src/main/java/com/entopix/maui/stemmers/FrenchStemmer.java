@@ -82,7 +82,7 @@ public class FrenchStemmer extends Stemmer {
 	 */
     private boolean modified;
 
-    public String stem(String str)  {
+    public synchronized String stem(String str)  {
         // check for zero length
 	if (str.length() > 3) {
 	    // all characters must be letters
@@ -0,0 +1,125 @@
+package com.entopix.maui.util;
+
+import java.io.Serializable;
+
+/**
+ * Count-min sketch of string counts in a fixed number of ints.
+ *
+ * Estimates never fall below the true count. With width w and depth d, an
+ * estimate exceeds the true count by more than e / w times the total of all
+ * counts with probability at most e^-d. Counts are added with conservative
+ * update, which only raises the cells that hold the current minimum.
+ */
+public class CountMinSketch implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int width;
+
+	private final int depth;
+
+	/** depth rows of width cells */
+	private final int[] cells;
+
+	private long total = 0;
+
+	public CountMinSketch(int width, int depth) {
+		this(width, depth, new int[width * depth], 0);
+	}
+
+	/**
+	 * Creates a sketch from the cells and total of another one, row by row.
+	 */
+	public CountMinSketch(int width, int depth, int[] cells, long total) {
+		if (width <= 0 || depth <= 0) {
+			throw new IllegalArgumentException("Width and depth must be positive");
+		}
+		if (cells.length != width * depth) {
+			throw new IllegalArgumentException("Expected " + width * depth + " cells, got " + cells.length);
+		}
+		this.width = width;
+		this.depth = depth;
+		this.cells = cells;
+		this.total = total;
+	}
+
+	private static int secondHash(String key) {
+		// FNV-1a, independent enough of String.hashCode
+		int h = 0x811C9DC5;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x01000193;
+		}
+		return h | 1;
+	}
+
+	private int cell(int row, int h1, int h2) {
+		return row * width + ((h1 + row * h2) & 0x7FFFFFFF) % width;
+	}
+
+	/**
+	 * Adds a positive number to the count of the key.
+	 */
+	public void add(String key, int count) {
+		int h1 = key.hashCode() * 0x9E3779B9;
+		int h2 = secondHash(key);
+		int target = estimate(h1, h2) + count;
+		for (int row = 0; row < depth; row++) {
+			int i = cell(row, h1, h2);
+			if (cells[i] < target) {
+				cells[i] = target;
+			}
+		}
+		total += count;
+	}
+
+	/**
+	 * Returns an upper bound of the count of the key, 0 if nothing that
+	 * shares its cells has been added.
+	 */
+	public int estimate(String key) {
+		return estimate(key.hashCode() * 0x9E3779B9, secondHash(key));
+	}
+
+	private int estimate(int h1, int h2) {
+		int min = Integer.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			min = Math.min(min, cells[cell(row, h1, h2)]);
+		}
+		return min;
+	}
+
+	/**
+	 * Returns the amount by which an estimate exceeds the true count with
+	 * probability at least 1 - getErrorProbability().
+	 */
+	public double getErrorBound() {
+		return Math.E / width * total;
+	}
+
+	public double getErrorProbability() {
+		return Math.exp(-depth);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the sum of all counts added.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the cells, row by row, without copying them.
+	 */
+	public int[] getCells() {
+		return cells;
+	}
+}
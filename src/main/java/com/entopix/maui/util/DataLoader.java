@@ -7,9 +7,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 
 import com.entopix.maui.filters.MauiFilter;
+import com.entopix.maui.filters.MauiModelFile;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,7 +22,9 @@ public class DataLoader {
 
 	
     /**
-     * Loads model from a file path
+     * Loads model from a file path. Models in the format of MauiModelFile are
+     * read directly, older models written with Java serialization are still
+     * accepted.
      * @param modelPath
      * @return 
      */
@@ -30,9 +34,13 @@ public class DataLoader {
 		try {
 			inStream = new BufferedInputStream(
 					new FileInputStream(modelPath));
-			ObjectInputStream in = new ObjectInputStream(inStream);
-			model = (MauiFilter) in.readObject();
-			in.close();
+			if (MauiModelFile.isModelFile(inStream)) {
+				model = MauiModelFile.read(inStream);
+			} else {
+				ObjectInputStream in = new ObjectInputStream(inStream);
+				model = (MauiFilter) in.readObject();
+				in.close();
+			}
 			inStream.close();
 			
 		} catch (IOException e) {
@@ -55,39 +63,78 @@ public class DataLoader {
 
 
 	/**
-	 * Loads MauiDocument objects from data in a given directory.
-	 * Assumes that each document to extract keywords from is stored as a .txt file,
-	 * and that it has a list of keywords in .key file with the same name.
+	 * Returns the documents in a given directory, like loadTestDocuments,
+	 * but reads each document only when the iteration reaches it. Every
+	 * iteration reads the files again.
 	 * @param datasetPath
 	 * @return
 	 */
-	public static List<MauiDocument> loadTestDocuments(String datasetPath) {
-		List<MauiDocument> testDocuments = new ArrayList<MauiDocument>();
+	public static Iterable<MauiDocument> streamDocuments(String datasetPath) {
+		final List<File> files = listDocumentFiles(datasetPath);
+		return new Iterable<MauiDocument>() {
+			public Iterator<MauiDocument> iterator() {
+				final Iterator<File> fileIterator = files.iterator();
+				return new Iterator<MauiDocument>() {
+					public boolean hasNext() {
+						return fileIterator.hasNext();
+					}
+
+					public MauiDocument next() {
+						return loadDocument(fileIterator.next());
+					}
 
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	private static List<File> listDocumentFiles(String datasetPath) {
 		File datasetDir = new File(datasetPath);
 		if (!datasetDir.exists()) {
 			log.error("Directory " + datasetDir.getAbsolutePath() + " not found!");
 			throw new RuntimeException();
 		}
 
+		List<File> files = new ArrayList<File>();
 		for (File file : datasetDir.listFiles()) {
-			if (!file.getName().endsWith(".txt")) {
-				continue;
+			if (file.getName().endsWith(".txt")) {
+				files.add(file);
 			}
-			try {
-				String textContent = FileUtils.readFileToString(file);
-				File keyFile = new File(file.getAbsoluteFile().toString().replace(".txt", ".key"));
-				String manualTopics = "";
-				if (keyFile.exists()) {
-					manualTopics = FileUtils.readFileToString(keyFile);
-				}
-				MauiDocument testDocument = new MauiDocument(file.getName(), file.getAbsolutePath(), textContent, manualTopics);
-				testDocuments.add(testDocument);
+		}
+		return files;
+	}
 
-			} catch (IOException e) {
-				log.error("Error while loading documents: " + e.getMessage());
-				throw new RuntimeException();
+	private static MauiDocument loadDocument(File file) {
+		try {
+			String textContent = FileUtils.readFileToString(file);
+			File keyFile = new File(file.getAbsoluteFile().toString().replace(".txt", ".key"));
+			String manualTopics = "";
+			if (keyFile.exists()) {
+				manualTopics = FileUtils.readFileToString(keyFile);
 			}
+			return new MauiDocument(file.getName(), file.getAbsolutePath(), textContent, manualTopics);
+
+		} catch (IOException e) {
+			log.error("Error while loading documents: " + e.getMessage());
+			throw new RuntimeException();
+		}
+	}
+
+	/**
+	 * Loads MauiDocument objects from data in a given directory.
+	 * Assumes that each document to extract keywords from is stored as a .txt file,
+	 * and that it has a list of keywords in .key file with the same name.
+	 * @param datasetPath
+	 * @return
+	 */
+	public static List<MauiDocument> loadTestDocuments(String datasetPath) {
+		List<MauiDocument> testDocuments = new ArrayList<MauiDocument>();
+
+		for (File file : listDocumentFiles(datasetPath)) {
+			testDocuments.add(loadDocument(file));
 		}
 
 		return testDocuments;
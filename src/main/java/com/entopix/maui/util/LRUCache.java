@@ -0,0 +1,33 @@
+package com.entopix.maui.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Map that keeps at most a fixed number of entries, forgetting the least
+ * recently used entry when a new one would exceed the capacity. Like
+ * LinkedHashMap, it is not synchronized, and get() counts as a use.
+ */
+public class LRUCache<K, V> extends LinkedHashMap<K, V> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int capacity;
+
+	public LRUCache(int capacity) {
+		super(16, 0.75f, true);
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.capacity = capacity;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+		return size() > capacity;
+	}
+}
@@ -0,0 +1,155 @@
+package com.entopix.maui.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from strings to primitive ints.
+ *
+ * Avoids the entry objects and boxed values of a HashMap<String, Integer>,
+ * which dominate memory use for large string tables. Keys cannot be null
+ * and entries cannot be removed.
+ */
+public class StringIntMap implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Value returned by get() for absent keys */
+	public static final int NO_VALUE = -1;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private String[] keys;
+	private int[] values;
+	private int size = 0;
+
+	public StringIntMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Creates a map that can hold the given number of keys without resizing.
+	 */
+	public StringIntMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		keys = new String[capacity];
+		values = new int[capacity];
+	}
+
+	private static int slot(String key, int mask) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private int find(String key) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		String k;
+		while ((k = keys[i]) != null) {
+			if (k.equals(key)) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1 - i;
+	}
+
+	/**
+	 * Returns the value stored for the key, or NO_VALUE if there is none.
+	 */
+	public int get(String key) {
+		int i = find(key);
+		return i >= 0 ? values[i] : NO_VALUE;
+	}
+
+	public boolean containsKey(String key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Stores the value for the key and returns the previous value, or
+	 * NO_VALUE if the key was absent.
+	 */
+	public int put(String key, int value) {
+		int i = find(key);
+		if (i >= 0) {
+			int old = values[i];
+			values[i] = value;
+			return old;
+		}
+		i = -1 - i;
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > keys.length) {
+			resize(keys.length << 1);
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Adds one to the value stored for the key, starting from zero.
+	 * @return the new value
+	 */
+	public int increment(String key) {
+		return add(key, 1);
+	}
+
+	/**
+	 * Adds the given number to the value stored for the key, starting from
+	 * zero.
+	 * @return the new value
+	 */
+	public int add(String key, int number) {
+		int i = find(key);
+		if (i >= 0) {
+			return values[i] += number;
+		}
+		put(key, number);
+		return number;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the keys in no particular order.
+	 */
+	public String[] keys() {
+		String[] result = new String[size];
+		int n = 0;
+		for (String k : keys) {
+			if (k != null) {
+				result[n++] = k;
+			}
+		}
+		return result;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+
+	private void resize(int capacity) {
+		String[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new String[capacity];
+		values = new int[capacity];
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			String k = oldKeys[j];
+			if (k != null) {
+				int i = slot(k, mask);
+				while (keys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = k;
+				values[i] = oldValues[j];
+			}
+		}
+	}
+}
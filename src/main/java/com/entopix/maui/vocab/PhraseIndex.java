@@ -0,0 +1,399 @@
+package com.entopix.maui.vocab;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.entopix.maui.util.StringIntMap;
+
+/**
+ * Index of the words of the normalized phrases of a vocabulary, used to rule
+ * out the phrases of a document that cannot be in the vocabulary before they
+ * are normalized and looked up.
+ *
+ * Phrases are numbered in the order of their number of words, and every word
+ * maps to the sorted numbers of the phrases that contain it. A Matcher reads
+ * the words of a document once, and follows a phrase from its last word to
+ * its first by intersecting the numbers of its words. As soon as no phrase
+ * of the vocabulary contains all of them, no longer phrase ending at the same
+ * word can be in the vocabulary either. Because normalization sorts the words
+ * of a phrase, the index keeps which words a phrase has but not their order.
+ *
+ * A phrase that passes the matcher still has to be looked up, the index only
+ * answers which phrases certainly have no senses. The index counts how many
+ * phrases its matchers rule out and let through, and how many of the latter
+ * turn out to have senses.
+ */
+public class PhraseIndex {
+
+	/** Numbers of a word that may normalize to anything */
+	private static final int[] ANY_PHRASE = new int[0];
+
+	/** Numbers of a word that normalization removes, e.g. a stopword */
+	private static final int[] NO_WORD = new int[0];
+
+	private final Vocabulary vocabulary;
+
+	private final VocabularyStore store;
+
+	private final int numPhrases;
+
+	/** word --> sorted numbers of the phrases containing it */
+	private final HashMap<String, int[]> wordPhrases;
+
+	/** phrases with n words have the numbers firstWithWords[n] .. firstWithWords[n + 1] - 1 */
+	private final int[] firstWithWords;
+
+	/** phrases after which no longer phrase ending at the same word was followed */
+	private final LongAdder numStopped = new LongAdder();
+
+	/** phrases ruled out by mayMatch, not counting those stopped at */
+	private final LongAdder numRuledOut = new LongAdder();
+
+	private final LongAdder numLookedUp = new LongAdder();
+
+	private final LongAdder numMatched = new LongAdder();
+
+	/**
+	 * Indexes the phrases of the store, which must be able to list them.
+	 */
+	PhraseIndex(Vocabulary vocabulary, VocabularyStore store) {
+		this.vocabulary = vocabulary;
+		this.store = store;
+
+		// group the phrases by their number of words
+		List<List<String[]>> byLength = new ArrayList<List<String[]>>();
+		Collection<String> phrases = store.getPhrases();
+		for (String phrase : phrases) {
+			String[] words = split(phrase);
+			if (words.length == 0) {
+				continue;
+			}
+			while (byLength.size() <= words.length) {
+				byLength.add(new ArrayList<String[]>());
+			}
+			byLength.get(words.length).add(words);
+		}
+		numPhrases = phrases.size();
+
+		StringIntMap counts = new StringIntMap();
+		for (List<String[]> group : byLength) {
+			for (String[] words : group) {
+				for (String word : words) {
+					counts.increment(word);
+				}
+			}
+		}
+		wordPhrases = new HashMap<String, int[]>(counts.size() * 2);
+		StringIntMap filled = new StringIntMap(counts.size());
+		firstWithWords = new int[byLength.size() + 1];
+		int number = 0;
+		for (int n = 0; n < byLength.size(); n++) {
+			firstWithWords[n] = number;
+			for (String[] words : byLength.get(n)) {
+				for (String word : words) {
+					int[] numbers = wordPhrases.get(word);
+					if (numbers == null) {
+						numbers = new int[counts.get(word)];
+						wordPhrases.put(word, numbers);
+						filled.put(word, 0);
+					}
+					int size = filled.get(word);
+					// a word repeated in a phrase is kept once
+					if (size == 0 || numbers[size - 1] != number) {
+						numbers[size] = number;
+						filled.put(word, size + 1);
+					}
+				}
+				number++;
+			}
+		}
+		firstWithWords[byLength.size()] = number;
+		for (String word : filled.keys()) {
+			int size = filled.get(word);
+			int[] numbers = wordPhrases.get(word);
+			if (size < numbers.length) {
+				wordPhrases.put(word, Arrays.copyOf(numbers, size));
+			}
+		}
+	}
+
+	private static String[] split(String phrase) {
+		List<String> words = new ArrayList<String>();
+		for (String word : phrase.split(" ")) {
+			if (!word.isEmpty()) {
+				words.add(word);
+			}
+		}
+		return words.toArray(new String[words.size()]);
+	}
+
+	/**
+	 * Checks whether the index still covers all phrases of the store.
+	 */
+	boolean isCurrent(VocabularyStore store) {
+		if (store != this.store) {
+			return false;
+		}
+		Collection<String> phrases = store.getPhrases();
+		return phrases != null && phrases.size() == numPhrases;
+	}
+
+	/**
+	 * Returns the numbers of the phrases that a word of a document may
+	 * contribute to.
+	 */
+	private int[] getPhrasesOfWord(String word) {
+		String[] forms = vocabulary.normalizeWord(word);
+		if (forms == null) {
+			return ANY_PHRASE;
+		}
+		if (forms.length == 0) {
+			return NO_WORD;
+		}
+		int[] numbers = wordPhrases.get(forms[0]);
+		for (int i = 1; i < forms.length; i++) {
+			numbers = union(numbers, wordPhrases.get(forms[i]));
+		}
+		return numbers == null ? new int[0] : numbers;
+	}
+
+	private static int[] union(int[] a, int[] b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		int[] result = new int[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				result[k++] = a[i++];
+			} else if (a[i] > b[j]) {
+				result[k++] = b[j++];
+			} else {
+				result[k++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length) {
+			result[k++] = a[i++];
+		}
+		while (j < b.length) {
+			result[k++] = b[j++];
+		}
+		return Arrays.copyOf(result, k);
+	}
+
+	/**
+	 * Returns the number of phrases at which matchers stopped following the
+	 * longer phrases ending at the same word, because no phrase of the
+	 * vocabulary contains all their words.
+	 */
+	public long getNumStopped() {
+		return numStopped.sum();
+	}
+
+	/**
+	 * Returns the number of phrases that mayMatch ruled out.
+	 */
+	public long getNumRuledOut() {
+		return numRuledOut.sum();
+	}
+
+	/**
+	 * Returns the number of phrases that mayMatch let through.
+	 */
+	public long getNumLookedUp() {
+		return numLookedUp.sum();
+	}
+
+	/**
+	 * Returns the number of phrases let through that had senses, as
+	 * recorded with Matcher.recordMatch.
+	 */
+	public long getNumMatched() {
+		return numMatched.sum();
+	}
+
+	public void resetCounts() {
+		numStopped.reset();
+		numRuledOut.reset();
+		numLookedUp.reset();
+		numMatched.reset();
+	}
+
+	@Override
+	public String toString() {
+		long stopped = getNumStopped();
+		long ruledOut = getNumRuledOut();
+		long lookedUp = getNumLookedUp();
+		long matched = getNumMatched();
+		long total = stopped + ruledOut + lookedUp;
+		return total + " phrases, " + stopped + " stopped at, " + ruledOut + " ruled out, "
+				+ lookedUp + " looked up (" + percent(lookedUp, total) + "%), "
+				+ matched + " with senses (" + percent(matched, lookedUp) + "% of looked up)";
+	}
+
+	private static long percent(long part, long total) {
+		return total == 0 ? 0 : Math.round(100.0 * part / total);
+	}
+
+	/**
+	 * Returns a matcher for the phrases of one document, with phrases of at
+	 * most maxPhraseLength words.
+	 */
+	public Matcher newMatcher(int maxPhraseLength) {
+		return new Matcher(maxPhraseLength);
+	}
+
+	/**
+	 * Follows the phrases of one document. Words are added with addWord in
+	 * the order of the document. A phrase ending at the last word added is
+	 * started with startPhrase and extended towards the start of the document
+	 * one word at a time with extendPhrase. Not thread safe, every thread
+	 * needs its own matcher.
+	 */
+	public class Matcher {
+
+		/** numbers of the phrases of the last words, a ring buffer */
+		private final int[][] words;
+
+		private int last = -1;
+
+		/** numbers of the words seen in this document */
+		private final HashMap<String, int[]> seen = new HashMap<String, int[]>();
+
+		/** numbers of the phrases containing all words of the current phrase */
+		private int[] live;
+		private int numLive;
+		private int[] bufferA = new int[16];
+		private int[] bufferB = new int[16];
+
+		/** number of words of the current phrase, and how many of them count */
+		private int length;
+		private int numWords;
+		private boolean any;
+
+		private Matcher(int maxPhraseLength) {
+			words = new int[maxPhraseLength][];
+		}
+
+		public void addWord(String word) {
+			int[] numbers = seen.get(word);
+			if (numbers == null) {
+				numbers = getPhrasesOfWord(word);
+				seen.put(word, numbers);
+			}
+			last = (last + 1) % words.length;
+			words[last] = numbers;
+		}
+
+		/**
+		 * Starts an empty phrase that ends at the last word added.
+		 */
+		public void startPhrase() {
+			length = 0;
+			numWords = 0;
+			any = false;
+			live = null;
+			numLive = 0;
+		}
+
+		/**
+		 * Adds the word before the current phrase to it.
+		 *
+		 * @return false if no phrase of the vocabulary can contain all words
+		 * of the current phrase, and therefore none of the longer ones
+		 */
+		public boolean extendPhrase() {
+			if (length == words.length) {
+				throw new IllegalStateException("Phrase longer than " + words.length + " words");
+			}
+			int[] numbers = words[(last - length + words.length) % words.length];
+			length++;
+			if (any || numbers == NO_WORD) {
+				return true;
+			}
+			if (numbers == ANY_PHRASE) {
+				any = true;
+				return true;
+			}
+
+			numWords++;
+			if (numWords == 1) {
+				live = numbers;
+				numLive = numbers.length;
+			} else {
+				intersect(numbers);
+			}
+			// some phrase must contain the words and have at least as many
+			if (numLive > 0 && numWords < firstWithWords.length - 1
+					&& live[numLive - 1] >= firstWithWords[numWords]) {
+				return true;
+			}
+			numStopped.increment();
+			return false;
+		}
+
+		private void intersect(int[] numbers) {
+			// intersect into the buffer that does not hold the live numbers
+			int[] result = live == bufferA ? bufferB : bufferA;
+			if (result.length < numLive) {
+				result = new int[numLive];
+				if (live == bufferA) {
+					bufferB = result;
+				} else {
+					bufferA = result;
+				}
+			}
+			int i = 0, j = 0, k = 0;
+			while (i < numLive && j < numbers.length) {
+				if (live[i] < numbers[j]) {
+					i++;
+				} else if (live[i] > numbers[j]) {
+					j++;
+				} else {
+					result[k++] = live[i++];
+					j++;
+				}
+			}
+			live = result;
+			numLive = k;
+		}
+
+		/**
+		 * Checks whether the current phrase may be a phrase of the
+		 * vocabulary, that is whether it has to be looked up.
+		 */
+		public boolean mayMatch() {
+			boolean mayMatch = any || numWords == 0;
+			if (!mayMatch && numWords < firstWithWords.length - 1) {
+				int first = firstWithWords[numWords];
+				int i = Arrays.binarySearch(live, 0, numLive, first);
+				if (i < 0) {
+					i = -i - 1;
+				}
+				mayMatch = i < numLive && live[i] < firstWithWords[numWords + 1];
+			}
+			if (mayMatch) {
+				numLookedUp.increment();
+			} else {
+				numRuledOut.increment();
+			}
+			return mayMatch;
+		}
+
+		/**
+		 * Records that the current phrase, let through by mayMatch, has
+		 * senses in the vocabulary.
+		 */
+		public void recordMatch() {
+			numMatched.increment();
+		}
+	}
+}
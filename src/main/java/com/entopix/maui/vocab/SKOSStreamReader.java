@@ -0,0 +1,211 @@
+package com.entopix.maui.vocab;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.n3.turtle.TurtleEventHandler;
+import org.apache.jena.n3.turtle.parser.ParseException;
+import org.apache.jena.n3.turtle.parser.TurtleParser;
+import org.apache.jena.rdfxml.xmlinput.ALiteral;
+import org.apache.jena.rdfxml.xmlinput.ARP;
+import org.apache.jena.rdfxml.xmlinput.AResource;
+import org.apache.jena.rdfxml.xmlinput.StatementHandler;
+import org.apache.jena.shared.JenaException;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.SKOS;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads the parts of a SKOS file that Vocabulary needs from a stream of
+ * triples, without building a Jena Model.
+ *
+ * Only the type, owl:deprecated flag, labels in the requested language and
+ * the broader, narrower and related links of each subject are kept, as
+ * strings. RDF/XML is parsed with ARP, Turtle and N-Triples with the Turtle
+ * parser of jena-core.
+ */
+class SKOSStreamReader {
+
+	public static final String RDF_XML = "RDF/XML";
+
+	public static final String TURTLE = "TURTLE";
+
+	public static final String N_TRIPLES = "N-TRIPLES";
+
+	/** The properties linking related concepts, in the order Vocabulary adds them */
+	static final String[] RELATION_PROPERTIES = { SKOS.broader.getURI(),
+		SKOS.narrower.getURI(), SKOS.related.getURI() };
+
+	private static final String TYPE = RDF.type.getURI();
+	private static final String CONCEPT = SKOS.Concept.getURI();
+	private static final String DEPRECATED = OWL.NS + "deprecated";
+	private static final String PREF_LABEL = SKOS.prefLabel.getURI();
+	private static final String ALT_LABEL = SKOS.altLabel.getURI();
+	private static final String HIDDEN_LABEL = SKOS.hiddenLabel.getURI();
+
+	/** What is known about one subject of the file */
+	static class Concept {
+		final String uri;
+		boolean isConcept = false;
+		boolean deprecated = false;
+		String prefLabel = null;
+		final List<String> altLabels = new ArrayList<String>(2);
+		final List<String> hiddenLabels = new ArrayList<String>(0);
+		@SuppressWarnings("unchecked")
+		final List<String>[] relations = new List[RELATION_PROPERTIES.length];
+
+		Concept(String uri) {
+			this.uri = uri;
+		}
+	}
+
+	private final String language;
+
+	/** Subjects in the order they first appear */
+	private final LinkedHashMap<String, Concept> subjects = new LinkedHashMap<String, Concept>();
+
+	SKOSStreamReader(String language) {
+		this.language = language;
+	}
+
+	/**
+	 * Returns the format of a SKOS file judging by its name: Turtle for
+	 * .ttl, N-Triples for .nt and RDF/XML otherwise, ignoring .gz.
+	 */
+	static String formatForFile(String fileName) {
+		if (fileName.endsWith(".gz")) {
+			fileName = fileName.substring(0, fileName.length() - 3);
+		}
+		if (fileName.endsWith(".ttl")) {
+			return TURTLE;
+		}
+		if (fileName.endsWith(".nt")) {
+			return N_TRIPLES;
+		}
+		return RDF_XML;
+	}
+
+	void read(Reader reader, String format) throws IOException {
+		if (format.equals(RDF_XML)) {
+			ARP arp = new ARP();
+			arp.getHandlers().setStatementHandler(new StatementHandler() {
+				public void statement(AResource subject, AResource predicate, AResource object) {
+					if (!subject.isAnonymous() && !object.isAnonymous()) {
+						addResource(subject.getURI(), predicate.getURI(), object.getURI());
+					}
+				}
+
+				public void statement(AResource subject, AResource predicate, ALiteral object) {
+					if (!subject.isAnonymous()) {
+						addLiteral(subject.getURI(), predicate.getURI(), object.toString(), object.getLang());
+					}
+				}
+			});
+			try {
+				arp.load(reader, "");
+			} catch (SAXException e) {
+				throw new IOException("Error parsing RDF/XML", e);
+			}
+		} else if (format.equals(TURTLE) || format.equals(N_TRIPLES)) {
+			// N-Triples is a subset of Turtle
+			TurtleParser parser = new TurtleParser(reader);
+			parser.setBaseURI("");
+			parser.setEventHandler(new TurtleEventHandler() {
+				public void triple(int line, int col, Triple triple) {
+					Node subject = triple.getSubject();
+					Node object = triple.getObject();
+					if (!subject.isURI()) {
+						return;
+					}
+					if (object.isURI()) {
+						addResource(subject.getURI(), triple.getPredicate().getURI(), object.getURI());
+					} else if (object.isLiteral()) {
+						addLiteral(subject.getURI(), triple.getPredicate().getURI(),
+								object.getLiteralLexicalForm(), object.getLiteralLanguage());
+					}
+				}
+
+				public void prefix(int line, int col, String prefix, String iri) {
+				}
+
+				public void startFormula(int line, int col) {
+				}
+
+				public void endFormula(int line, int col) {
+				}
+			});
+			try {
+				parser.parse();
+			} catch (ParseException | JenaException e) {
+				throw new IOException("Error parsing " + format, e);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported RDF format " + format);
+		}
+	}
+
+	private Concept getSubject(String uri) {
+		Concept concept = subjects.get(uri);
+		if (concept == null) {
+			concept = new Concept(uri);
+			subjects.put(uri, concept);
+		}
+		return concept;
+	}
+
+	private void addResource(String subject, String predicate, String object) {
+		if (predicate.equals(TYPE)) {
+			if (object.equals(CONCEPT)) {
+				getSubject(subject).isConcept = true;
+			}
+			return;
+		}
+		for (int i = 0; i < RELATION_PROPERTIES.length; i++) {
+			if (predicate.equals(RELATION_PROPERTIES[i])) {
+				Concept concept = getSubject(subject);
+				if (concept.relations[i] == null) {
+					concept.relations[i] = new ArrayList<String>(2);
+				}
+				concept.relations[i].add(object);
+				return;
+			}
+		}
+	}
+
+	private void addLiteral(String subject, String predicate, String value, String lang) {
+		if (predicate.equals(DEPRECATED)) {
+			if (Boolean.parseBoolean(value.trim())) {
+				getSubject(subject).deprecated = true;
+			}
+			return;
+		}
+		if (!language.equalsIgnoreCase(lang)) {
+			return;
+		}
+		if (predicate.equals(PREF_LABEL)) {
+			Concept concept = getSubject(subject);
+			if (concept.prefLabel == null) {
+				concept.prefLabel = value;
+			}
+		} else if (predicate.equals(ALT_LABEL)) {
+			getSubject(subject).altLabels.add(value);
+		} else if (predicate.equals(HIDDEN_LABEL)) {
+			getSubject(subject).hiddenLabels.add(value);
+		}
+	}
+
+	/**
+	 * Returns all subjects read so far, including those that are not
+	 * skos:Concepts or are deprecated.
+	 */
+	Collection<Concept> getSubjects() {
+		return subjects.values();
+	}
+}
@@ -8,14 +8,18 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import com.entopix.maui.stemmers.Stemmer;
 import com.entopix.maui.stopwords.Stopwords;
 
-import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.ResIterator;
 import org.apache.jena.rdf.model.Resource;
@@ -30,7 +34,7 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Builds an index with the content of the controlled vocabulary.
- * Accepts vocabularies as rdf files (SKOS format) and in plain text format:
+ * Accepts vocabularies as SKOS files (RDF/XML, Turtle or N-Triples) and in plain text format:
  * vocabulary_name.en (with "ID TERM" per line) - descriptors and non-descriptors
  * vocabulary_name.use (with "ID_NON-DESCR \t ID_DESCRIPTOR" per line)
  * vocabulary_name.rel (with "ID \t RELATED_ID1 RELATED_ID2 ... " per line)
@@ -41,8 +45,11 @@ public class Vocabulary {
 
 	private static final Logger log = LoggerFactory.getLogger(Vocabulary.class);
 
-	private VocabularyStore vocabStore;
+	private volatile VocabularyStore vocabStore;
 	private String vocabularyName;
+	/** VocabularyStore implementation created when the vocabulary is loaded */
+	@SuppressWarnings("rawtypes")
+	private Class vocabularyStoreClass = VocabularyStoreFactory.DEFAULT_VOCABULARY_CLASS;
 
 	/** Document language */
 	private String language = "en";
@@ -57,13 +64,19 @@ public class Vocabulary {
 	/** Normalization via alphabetic reordering - default true*/
 	private boolean reorder = true;
 	private boolean serialize = false;
+	/** Number of threads normalizing labels while the vocabulary is built */
+	private int numThreads = 1;
+	/** Index of the words of the phrases in vocabStore, built on first use */
+	private volatile PhraseIndex phraseIndex;
+	/** Held while an update is applied to a copy of vocabStore */
+	private final Object updateLock = new Object();
 
 
 	/** Initializes vocabulary from a file path
 	 *
 	 * Given the file path to the vocabulary and the format, 
 	 * it first checks whether this file exists:<br>
-	 * - vocabularyName.rdf or vocabularyName.rdf.gz if skos format is selected<br>
+	 * - vocabularyName.rdf, .ttl or .nt, optionally gzipped, if skos format is selected<br>
 	 * - or a set of 3 flat txt files starting with vocabularyName and with extensions<br>
 	 * * .en (id term) - the path to this file should be supplied as the main parameters
 	 * * .use (non-descriptor \t descriptor)
@@ -79,7 +92,9 @@ public class Vocabulary {
 
 		if (vocabularyFormat.equals("skos")) {
 
-			if (!vocabularyName.endsWith(".rdf.gz") && !vocabularyName.endsWith("rdf")) {
+			String fileName = vocabularyName.endsWith(".gz")
+					? vocabularyName.substring(0, vocabularyName.length() - 3) : vocabularyName;
+			if (!fileName.endsWith("rdf") && !fileName.endsWith(".ttl") && !fileName.endsWith(".nt")) {
 				log.error("Error while loading vocabulary from " + vocabularyName);
 				throw new RuntimeException("File " + vocabularyName + " appears to be not in the skos format!");
 			}
@@ -98,7 +113,7 @@ public class Vocabulary {
 							resourceStream = new GZIPInputStream(resourceStream);
 						}
 					}
-					initializeFromStream(resourceStream);
+					initializeFromSKOSStream(resourceStream, SKOSStreamReader.formatForFile(vocabularyName));
 				} else {
 					initializeFromSKOSFile(skosFile);
 				}
@@ -169,24 +184,45 @@ public class Vocabulary {
 
 	public void setLowerCase(boolean toLowerCase) {
 		this.toLowerCase = toLowerCase;
+		phraseIndex = null;
 	}
 
 	public void setReorder(boolean reorder) {
 		this.reorder = reorder;
+		phraseIndex = null;
 	}
 
 	public void setStemmer(Stemmer stemmer) {
 		this.stemmer = stemmer;
+		phraseIndex = null;
 	}
 
 	public void setVocabularyStore(VocabularyStore store) {
 		vocabStore = store;
+		phraseIndex = null;
+	}
+
+	/**
+	 * Sets the VocabularyStore implementation used when the vocabulary is
+	 * loaded, e.g. VocabularyStore_Compact for large vocabularies.
+	 */
+	public void setVocabularyStoreClass(@SuppressWarnings("rawtypes") Class vocabularyStoreClass) {
+		this.vocabularyStoreClass = vocabularyStoreClass;
 	}
 
 	public void setSerialize(boolean serialize) {
 		this.serialize = serialize;
 	}
 
+	/**
+	 * Sets the number of threads used to normalize the labels of SKOS
+	 * vocabularies while they are loaded. The index is the same for any
+	 * number of threads.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
 
 
 	/**
@@ -194,7 +230,7 @@ public class Vocabulary {
 	 */
 	public void initializeFromModel(Model model) {
 
-		vocabStore = VocabularyStoreFactory.createVocabStore(vocabularyName, stemmer, serialize);
+		vocabStore = VocabularyStoreFactory.createVocabStore(vocabularyName, stemmer, serialize, vocabularyStoreClass);
 
 		// we already have a de-serialized vocabStore
 		if (vocabStore.isInitialized()) {
@@ -208,8 +244,7 @@ public class Vocabulary {
 		// for some reason Jena doesn't predefine the owl:deprecated property
 		Property owlDeprecated = ResourceFactory.createProperty(OWL.NS, "deprecated");
 
-		// to create IDs for non-descriptors!
-		int count = 0;
+		List<ConceptEntry> concepts = new ArrayList<ConceptEntry>();
 		// Iterating over all concepts in the SKOS file
 		iter = model.listResourcesWithProperty(RDF.type, SKOS.Concept);
 
@@ -224,47 +259,208 @@ public class Vocabulary {
 				}
 			}
 
-			// id of the concept (Resource), e.g. "c_4828"
-			String id_string = concept.getURI();
-
 			// preferred label
 			stmt = concept.getProperty(SKOS.prefLabel, this.language);
-			if (stmt != null) {
-				Literal descriptor = stmt.getLiteral();
-				String descriptorNormalized = normalizePhrase(descriptor.getLexicalForm());
-				if (descriptorNormalized.length() >= 1) {
-					vocabStore.addSense(descriptorNormalized, id_string);
-					vocabStore.addDescriptor(id_string, descriptor.getLexicalForm());
-				}
-			}
+			String prefLabel = stmt == null ? null : stmt.getLiteral().getLexicalForm();
 
 			// alternate and hidden labels
+			List<String> nonDescriptors = new ArrayList<String>();
 			Property[] nondescriptorProps = { SKOS.altLabel, SKOS.hiddenLabel };
 			for (Property prop : nondescriptorProps) {
 				StmtIterator statements = concept.listProperties(prop, this.language);
 				while (statements.hasNext()) {
-					stmt = statements.nextStatement();
-					Literal non_descriptor = stmt.getLiteral();
-					String non_descriptorNormalized = normalizePhrase(non_descriptor.getLexicalForm());
-					if (non_descriptorNormalized.length() >= 1) {
-						vocabStore.addSense(non_descriptorNormalized, id_string);
-					}
-					addNonDescriptor(count, id_string, non_descriptor.getLexicalForm(), non_descriptorNormalized);
-					count++;
+					nonDescriptors.add(statements.nextStatement().getLiteral().getLexicalForm());
 				}
 			}
 
+			List<String> relatedTerms = new ArrayList<String>();
 			Property[] relationProps = { SKOS.broader, SKOS.narrower, SKOS.related };
 			for (Property prop : relationProps) {
 				StmtIterator statements = concept.listProperties(prop);
 				while (statements.hasNext()) {
-					stmt = statements.nextStatement();
-					// adds directly related term
-					vocabStore.addRelatedTerm(id_string, stmt.getResource().getURI());
+					relatedTerms.add(statements.nextStatement().getResource().getURI());
 				}
 			}
+
+			concepts.add(new ConceptEntry(concept.getURI(), prefLabel, nonDescriptors, relatedTerms));
+		}
+
+		addConcepts(vocabStore, concepts, false);
+		finishVocabStore();
+	}
+
+	/**
+	 * Loading a SKOS file into a VocabularyStore structure, reading the
+	 * triples one by one instead of building an RDF Model first.
+	 *
+	 * @param stream SKOS data
+	 * @param format RDF/XML, TURTLE or N-TRIPLES
+	 */
+	public void initializeFromSKOSStream(InputStream stream, String format) throws IOException {
+
+		vocabStore = VocabularyStoreFactory.createVocabStore(vocabularyName, stemmer, serialize, vocabularyStoreClass);
+
+		// we already have a de-serialized vocabStore
+		if (vocabStore.isInitialized()) {
+			stream.close();
+			return;
+		}
+
+		log.info("--- Building the Vocabulary index from the " + format + " stream...");
+
+		SKOSStreamReader reader = new SKOSStreamReader(language);
+		try {
+			reader.read(new InputStreamReader(stream, encoding), format);
+		} finally {
+			stream.close();
+		}
+
+		List<ConceptEntry> concepts = new ArrayList<ConceptEntry>();
+		for (SKOSStreamReader.Concept concept : reader.getSubjects()) {
+			if (!concept.isConcept || concept.deprecated) {
+				continue;
+			}
+
+			concepts.add(newConceptEntry(concept));
 		}
 
+		addConcepts(vocabStore, concepts, false);
+		finishVocabStore();
+	}
+
+	/** Labels and links of a concept, collected before it is added to the store */
+	private static class ConceptEntry {
+		final String uri;
+		final String prefLabel;
+		final List<String> nonDescriptors;
+		final List<String> relatedTerms;
+		String normalizedPrefLabel;
+		String[] normalizedNonDescriptors;
+
+		ConceptEntry(String uri, String prefLabel, List<String> nonDescriptors, List<String> relatedTerms) {
+			this.uri = uri;
+			this.prefLabel = prefLabel;
+			this.nonDescriptors = nonDescriptors;
+			this.relatedTerms = relatedTerms;
+		}
+	}
+
+	private static ConceptEntry newConceptEntry(SKOSStreamReader.Concept concept) {
+		List<String> nonDescriptors = new ArrayList<String>(concept.altLabels);
+		nonDescriptors.addAll(concept.hiddenLabels);
+
+		List<String> relatedTerms = new ArrayList<String>();
+		for (List<String> relations : concept.relations) {
+			if (relations != null) {
+				relatedTerms.addAll(relations);
+			}
+		}
+		return new ConceptEntry(concept.uri, concept.prefLabel, nonDescriptors, relatedTerms);
+	}
+
+	/**
+	 * Normalizes the labels of the concepts, on numThreads threads, and
+	 * adds the concepts to a vocabulary store in the order given.
+	 *
+	 * @param update whether the concepts update a vocabulary that is
+	 * already loaded, in which case the ids of their non-descriptors are
+	 * derived from the concept URIs rather than numbered from zero
+	 */
+	private void addConcepts(VocabularyStore store, final List<ConceptEntry> concepts, boolean update) {
+
+		if (numThreads <= 1) {
+			normalizeLabels(concepts, 0, concepts.size());
+		} else {
+			int numTasks = numThreads * 4;
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numTasks);
+			for (int t = 0; t < numTasks; t++) {
+				final int start = (int) ((long) concepts.size() * t / numTasks);
+				final int end = (int) ((long) concepts.size() * (t + 1) / numTasks);
+				tasks.add(new Callable<Void>() {
+					public Void call() {
+						normalizeLabels(concepts, start, end);
+						return null;
+					}
+				});
+			}
+			ForkJoinPool pool = new ForkJoinPool(numThreads);
+			try {
+				for (Future<Void> future : pool.invokeAll(tasks)) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while normalizing vocabulary labels", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException("Error while normalizing vocabulary labels", e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		// to create IDs for non-descriptors!
+		int count = 0;
+		for (ConceptEntry concept : concepts) {
+			count = addConcept(store, concept, count, update);
+		}
+	}
+
+	private void normalizeLabels(List<ConceptEntry> concepts, int start, int end) {
+		for (int i = start; i < end; i++) {
+			ConceptEntry concept = concepts.get(i);
+			if (concept.prefLabel != null) {
+				concept.normalizedPrefLabel = normalizePhrase(concept.prefLabel);
+			}
+			concept.normalizedNonDescriptors = new String[concept.nonDescriptors.size()];
+			for (int j = 0; j < concept.normalizedNonDescriptors.length; j++) {
+				concept.normalizedNonDescriptors[j] = normalizePhrase(concept.nonDescriptors.get(j));
+			}
+		}
+	}
+
+	/**
+	 * Adds a concept with normalized labels to a vocabulary store.
+	 *
+	 * @param count number of non-descriptors added so far
+	 * @param update see addConcepts
+	 * @return the new number of non-descriptors
+	 */
+	private int addConcept(VocabularyStore store, ConceptEntry concept, int count, boolean update) {
+
+		String id_string = concept.uri;
+
+		// preferred label
+		if (concept.prefLabel != null) {
+			String descriptorNormalized = concept.normalizedPrefLabel;
+			if (descriptorNormalized.length() >= 1) {
+				store.addSense(descriptorNormalized, id_string);
+				store.addDescriptor(id_string, concept.prefLabel);
+			}
+		}
+
+		// alternate and hidden labels
+		for (int i = 0; i < concept.nonDescriptors.size(); i++) {
+			String non_descriptor = concept.nonDescriptors.get(i);
+			String non_descriptorNormalized = concept.normalizedNonDescriptors[i];
+			if (non_descriptorNormalized.length() >= 1) {
+				store.addSense(non_descriptorNormalized, id_string);
+			}
+			String idNonDescriptor = update ? "d_" + id_string + "_" + i : "d_" + count;
+			addNonDescriptor(store, idNonDescriptor, id_string, non_descriptor, non_descriptorNormalized);
+			count++;
+		}
+
+		for (String relatedTerm : concept.relatedTerms) {
+			// adds directly related term
+			store.addRelatedTerm(id_string, relatedTerm);
+		}
+		return count;
+	}
+
+	private void finishVocabStore() {
 		log.info("--- Statistics about the vocabulary: ");
 		log.info("\t" + vocabStore.getNumTerms() + " terms in total");
 		log.info("\t" + vocabStore.getNumNonDescriptors() + " non-descriptive terms");
@@ -280,65 +476,116 @@ public class Vocabulary {
 
 
 	/**
-	 * Loads the Model from the SKOS file first, then initializes it.
+	 * Streams the SKOS file into the vocabulary store. The format is
+	 * RDF/XML unless the file name ends with .ttl or .nt (optionally .gz).
 	 */
 	public void initializeFromSKOSFile(File skosFile) throws IOException {
-
-		if (serialize) {
-			vocabStore = VocabularyStoreFactory.createVocabStore(vocabularyName, stemmer, serialize);
-
-			// we already have a de-serialized vocabStore
-			if (vocabStore.isInitialized()) {
-				return;
-			} else {
-				Model model = readModelFromFile(skosFile);
-				initializeFromModel(model);
-			}
-		} else {
-			Model model = readModelFromFile(skosFile);
-			initializeFromModel(model);
+		InputStream stream = new FileInputStream(skosFile);
+		if (skosFile.getName().endsWith(".gz")) {
+			stream = new GZIPInputStream(stream);
 		}
+		initializeFromSKOSStream(stream, SKOSStreamReader.formatForFile(skosFile.getName()));
 	}
 	
+	/**
+	 * Streams SKOS data in RDF/XML into the vocabulary store.
+	 */
 	public void initializeFromStream(InputStream stream) throws IOException {
+		initializeFromSKOSStream(stream, SKOSStreamReader.RDF_XML);
+	}
 
-		if (serialize) {
-			vocabStore = VocabularyStoreFactory.createVocabStore(vocabularyName, stemmer, serialize);
 
-			// we already have a de-serialized vocabStore
-			if (vocabStore.isInitialized()) {
-				return;
-			} else {
-				Model model = readModelFromInputStream(stream);
-				initializeFromModel(model);
-			}
-		} else {
-			Model model = readModelFromInputStream(stream);
-			initializeFromModel(model);
+
+	/**
+	 * Applies a SKOS file with changed concepts to the loaded vocabulary.
+	 * See updateFromSKOSStream.
+	 */
+	public void updateFromSKOSFile(File skosFile) throws IOException {
+		InputStream stream = new FileInputStream(skosFile);
+		if (skosFile.getName().endsWith(".gz")) {
+			stream = new GZIPInputStream(stream);
 		}
+		updateFromSKOSStream(stream, SKOSStreamReader.formatForFile(skosFile.getName()));
 	}
 
-	private Model readModelFromFile(File skosFile) throws IOException {
-		log.info("--- Loading RDF model from the SKOS file...");
-		InputStream stream;
-		
-		if (skosFile.getName().endsWith("rdf.gz")) {
-			stream = new GZIPInputStream(new FileInputStream(skosFile));
-		} else {
-			stream = new FileInputStream(skosFile);
+	/**
+	 * Applies SKOS data with changed concepts to the loaded vocabulary,
+	 * without rebuilding it.
+	 *
+	 * Every skos:Concept in the data replaces the concept with the same URI,
+	 * so it has to be described completely: all its labels and its broader,
+	 * narrower and related links. New concepts are added. Concepts marked as
+	 * owl:deprecated are removed, together with the links of other concepts
+	 * to them. If the vocabulary is serialized, the updated store is written
+	 * back to the serialized file.
+	 *
+	 * The changes are applied to a copy of the store, which replaces the
+	 * store once it is complete, so other threads can keep using the
+	 * vocabulary during the update. Concurrent updates are applied one
+	 * after the other.
+	 *
+	 * @param stream SKOS data
+	 * @param format RDF/XML, TURTLE or N-TRIPLES
+	 */
+	public void updateFromSKOSStream(InputStream stream, String format) throws IOException {
+
+		SKOSStreamReader reader = new SKOSStreamReader(language);
+		try {
+			reader.read(new InputStreamReader(stream, encoding), format);
+		} finally {
+			stream.close();
+		}
+
+		List<String> deprecated = new ArrayList<String>();
+		List<String> replaced = new ArrayList<String>();
+		List<ConceptEntry> concepts = new ArrayList<ConceptEntry>();
+		for (SKOSStreamReader.Concept concept : reader.getSubjects()) {
+			if (concept.deprecated) {
+				deprecated.add(concept.uri);
+			} else if (concept.isConcept) {
+				replaced.add(concept.uri);
+				concepts.add(newConceptEntry(concept));
+			}
+		}
+
+		log.info("--- Updating the Vocabulary index: " + concepts.size()
+				+ " changed concepts, " + deprecated.size() + " deprecated concepts");
+		synchronized (updateLock) {
+			VocabularyStore store = vocabStore.copy();
+			store.removeConcepts(deprecated, true);
+			store.removeConcepts(replaced, false);
+			addConcepts(store, concepts, true);
+			store.finishedInitialized();
+			publish(store);
 		}
-		
-		return readModelFromInputStream(stream);
-		
-	}
-	
-	private Model readModelFromInputStream(InputStream stream) throws IOException {
-		Model model = ModelFactory.createDefaultModel();
-		model.read(new InputStreamReader(stream, encoding), "");
-		return model;
 	}
 
+	/**
+	 * Removes concepts, and the links of other concepts to them, from the
+	 * loaded vocabulary.
+	 *
+	 * @param uris URIs of the concepts
+	 */
+	public void removeConcepts(Collection<String> uris) {
+		synchronized (updateLock) {
+			VocabularyStore store = vocabStore.copy();
+			store.removeConcepts(uris, true);
+			store.finishedInitialized();
+			publish(store);
+		}
+	}
 
+	/**
+	 * Writes an updated store back to the serialized file, if the
+	 * vocabulary is serialized, and replaces the store with it.
+	 */
+	private void publish(VocabularyStore store) {
+		if (serialize) {
+			VocabularyStoreFactory.serializeNewVocabStore(vocabularyName, store, stemmer);
+		}
+		vocabStore = store;
+		phraseIndex = null;
+	}
 
 	/**
 	 * Loading data from text files into a Vocabulary Store object for fast access.
@@ -346,7 +593,7 @@ public class Vocabulary {
 	 */
 	public void initializeFromTXTFiles(File enFile, File useFile, File relFile) {
 
-		vocabStore = VocabularyStoreFactory.createVocabStore(vocabularyName, stemmer, serialize);
+		vocabStore = VocabularyStoreFactory.createVocabStore(vocabularyName, stemmer, serialize, vocabularyStoreClass);
 
 		// we already have a de-serialized vocabStore
 		if (vocabStore.isInitialized()) {
@@ -371,6 +618,7 @@ public class Vocabulary {
 	 */
 	public void setStopwords(Stopwords stopwords) {
 		this.stopwords = stopwords;
+		phraseIndex = null;
 	}
 
 	public VocabularyStore getVocabularyStore() {
@@ -378,21 +626,19 @@ public class Vocabulary {
 	}
 
 
-	private void addNonDescriptor(int count, String idDescriptor,
+	private void addNonDescriptor(VocabularyStore store, String idNonDescriptor, String idDescriptor,
 			String nonDescriptor, String normalizedNonDescriptor) {
 
 		if (vocabularyName.equals("lcsh") && nonDescriptor.indexOf('(') != -1) {
 			return;
 		}
 
-		String idNonDescriptor = "d_" + count;
-
 		if (normalizedNonDescriptor.length() >= 1) {
-			vocabStore.addSense(normalizedNonDescriptor, idNonDescriptor);
+			store.addSense(normalizedNonDescriptor, idNonDescriptor);
 		}
 
-		vocabStore.addDescriptor(idNonDescriptor, nonDescriptor);
-		vocabStore.addNonDescriptor(idNonDescriptor, idDescriptor);
+		store.addDescriptor(idNonDescriptor, nonDescriptor);
+		store.addNonDescriptor(idNonDescriptor, idDescriptor);
 	}
 
 	public String getFormatedName( String in )
@@ -523,6 +769,31 @@ public class Vocabulary {
 		return senses;
 	}
 
+	/**
+	 * Returns the index used to rule out phrases that have no senses without
+	 * normalizing them, building it on first use, or null if the store
+	 * cannot list its phrases. The index is rebuilt when the vocabulary, its
+	 * normalization settings or the number of phrases in the store change.
+	 */
+	public PhraseIndex getPhraseIndex() {
+		VocabularyStore store = vocabStore;
+		PhraseIndex index = phraseIndex;
+		if (index != null && index.isCurrent(store)) {
+			return index;
+		}
+		synchronized (this) {
+			index = phraseIndex;
+			if (index == null || !index.isCurrent(store)) {
+				if (store == null || store.getPhrases() == null) {
+					return null;
+				}
+				index = new PhraseIndex(this, store);
+				phraseIndex = index;
+			}
+			return index;
+		}
+	}
+
 	/**
 	 * Given id of a term returns the list with ids of terms related to this term.
 	 * @param id
@@ -540,7 +811,8 @@ public class Vocabulary {
 	private boolean isOkToLower(String phrase) {
 		int lower = 0;
 		int upper = 0;
-		for (char p : phrase.toCharArray()) {
+		for (int i = 0; i < phrase.length(); i++) {
+			char p = phrase.charAt(i);
 			if (Character.isLowerCase(p)) {
 				lower++;
 			}
@@ -570,11 +842,27 @@ public class Vocabulary {
 			return orig;
 		}
 		// strip parenthetical qualifiers e.g. "bank (finance)" -> "bank"
-		phrase = phrase.replaceAll("\\s+\\(.*\\)$", "");
-		StringBuilder result = new StringBuilder();
+		int qualifierStart = phrase.length();
+		int qualifierEnd = phrase.length();
+		int close = phrase.length() - 1;
+		if (close > 0 && isLineTerminator(phrase.charAt(close))) {
+			// a qualifier may also end before a final line terminator
+			close -= phrase.endsWith("\r\n") ? 2 : 1;
+		}
+		if (close > 0 && phrase.charAt(close) == ')') {
+			qualifierStart = findQualifier(phrase, close);
+			if (qualifierStart < phrase.length()) {
+				qualifierEnd = close + 1;
+			}
+		}
+		StringBuilder result = new StringBuilder(phrase.length());
 		char prev = ' ';
 		int i = 0;
 		while (i < phrase.length()) {
+			if (i == qualifierStart) {
+				i = qualifierEnd;
+				continue;
+			}
 			char c = phrase.charAt(i);
 
 			// we ignore everything after the "/" symbol and everything in brackets
@@ -632,6 +920,75 @@ public class Vocabulary {
 		}
 	}
 
+	/**
+	 * Returns where the qualifier that ends with the bracket at the given
+	 * index starts, or the length of the phrase if there is none. The
+	 * qualifier is the whitespace before the first opening bracket that
+	 * has no line terminator between it and the end, as matched by the
+	 * regular expression "\\s+\\(.*\\)$".
+	 */
+	private static int findQualifier(String phrase, int close) {
+		int from = close;
+		while (from > 0 && !isLineTerminator(phrase.charAt(from - 1))) {
+			from--;
+		}
+		for (int j = Math.max(from, 1); j < close; j++) {
+			if (phrase.charAt(j) == '(' && isWhitespace(phrase.charAt(j - 1))) {
+				int start = j - 1;
+				while (start > 0 && isWhitespace(phrase.charAt(start - 1))) {
+					start--;
+				}
+				return start;
+			}
+		}
+		return phrase.length();
+	}
+
+	/** Whether a character matches \\s in a regular expression */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/** Whether a character ends a line in a regular expression */
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/**
+	 * Returns the forms a word of a document may take in the normalized
+	 * phrases that contain it, which depend on whether the whole phrase is
+	 * lower cased. Returns an empty array if the word is always removed, and
+	 * null if the normalized form cannot be told from the word alone, e.g.
+	 * for words with punctuation that normalizePhrase treats specially.
+	 */
+	String[] normalizeWord(String word) {
+		if (word.isEmpty() || word.endsWith("-")) {
+			return null;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			char c = word.charAt(i);
+			if (c <= ' ' || "()&.*:/".indexOf(c) != -1) {
+				return null;
+			}
+		}
+		boolean pseudo = reorder || stopwords != null || stemmer != null;
+		String form = pseudo ? pseudoPhrase(word) : word;
+		String lower = form;
+		if (toLowerCase) {
+			String lowerWord = word.toLowerCase();
+			if (!lowerWord.equals(word)) {
+				lower = pseudo ? pseudoPhrase(lowerWord) : lowerWord;
+			}
+		}
+		if (form.isEmpty() && lower.isEmpty()) {
+			return new String[0];
+		}
+		if (form.isEmpty() || lower.isEmpty()) {
+			return null;
+		}
+		return form.equals(lower) ? new String[] { form } : new String[] { form, lower };
+	}
+
 	/**
 	 * Generates the preudo phrase from a string.
 	 * A pseudo phrase is a version of a phrase
@@ -639,8 +996,8 @@ public class Vocabulary {
 	 * which are stemmed and sorted into alphabetical order.
 	 */
 	public String pseudoPhrase(String str) {
-		String result = "";
-		String[] words = str.split(" ");
+		StringBuilder result = new StringBuilder(str.length());
+		String[] words = splitWords(str);
 		if (reorder) {
 			Arrays.sort(words);
 		}
@@ -658,12 +1015,46 @@ public class Vocabulary {
 			if (stemmer != null) {
 				word = stemmer.stem(word);
 			}
-			result += word + " ";
+			result.append(word).append(' ');
 		}
-		return result.trim();
+		return result.toString().trim();
 	}
 
 
+	/**
+	 * Splits a string at single spaces like String.split(" "): empty words
+	 * between spaces are kept, but not those at the end.
+	 */
+	private static String[] splitWords(String str) {
+		int end = str.length();
+		while (end > 0 && str.charAt(end - 1) == ' ') {
+			end--;
+		}
+		if (end == 0) {
+			return str.isEmpty() ? new String[] { str } : new String[0];
+		}
+		int numWords = 1;
+		for (int i = 0; i < end; i++) {
+			if (str.charAt(i) == ' ') {
+				numWords++;
+			}
+		}
+		if (numWords == 1) {
+			return new String[] { end == str.length() ? str : str.substring(0, end) };
+		}
+		String[] words = new String[numWords];
+		int start = 0;
+		int w = 0;
+		for (int i = 0; i < end; i++) {
+			if (str.charAt(i) == ' ') {
+				words[w++] = str.substring(start, i);
+				start = i + 1;
+			}
+		}
+		words[w] = str.substring(start, end);
+		return words;
+	}
+
 	public void setVocabularyName(String vocabularyName) {
 		this.vocabularyName = vocabularyName;	
 	}
@@ -1,7 +1,14 @@
 package com.entopix.maui.vocab;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  *
@@ -55,4 +62,68 @@ public abstract class VocabularyStore {
     public abstract String getTerm(String id);
 
     public abstract ArrayList<String> getSensesForPhrase( String phrase );
+
+    /**
+     * Returns the normalized phrases of the store, a view that is not
+     * copied, or null if the store cannot list them. It may contain phrases
+     * whose concepts have been removed.
+     */
+    public Collection<String> getPhrases()
+    {
+        return null;
+    }
+
+    /**
+     * Returns a copy of the store that can be modified while this store is
+     * still being read. The default implementation copies stores that are
+     * Externalizable through writeExternal and readExternal.
+     *
+     * @throws UnsupportedOperationException if the store cannot be copied
+     */
+    public VocabularyStore copy()
+    {
+        if (!(this instanceof Externalizable)) {
+            throw new UnsupportedOperationException(getClass().getName() + " cannot be copied");
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            ((Externalizable) this).writeExternal(out);
+            out.close();
+
+            VocabularyStore copy = getClass().newInstance();
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            ((Externalizable) copy).readExternal(in);
+            copySettings(copy);
+            return copy;
+        } catch (IOException e) {
+            throw new RuntimeException("Error while copying " + getClass().getName(), e);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Error while copying " + getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Copies the settings of this store, but not its contents, to a copy.
+     */
+    protected void copySettings(VocabularyStore copy)
+    {
+        copy.initialized = initialized;
+        copy.wants_serialization = wants_serialization;
+        copy.vocabularyName = vocabularyName;
+    }
+
+    /**
+     * Removes concepts from the store: their descriptors, senses, related
+     * terms and the non-descriptors leading to them. Unknown ids are ignored.
+     *
+     * @param ids URIs of the concepts
+     * @param removeReferences whether to also remove the concepts from the
+     * related terms of other concepts
+     * @throws UnsupportedOperationException if the store cannot be modified
+     */
+    public void removeConcepts( Collection<String> ids, boolean removeReferences )
+    {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support removing concepts");
+    }
 }
@@ -4,6 +4,7 @@
  */
 package com.entopix.maui.vocab;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -26,7 +27,8 @@ public class VocabularyStoreFactory {
     public static final Class DEFAULT_VOCABULARY_CLASS = VocabularyStore_HT.class;
     
     private static String filenameForVocabulary(String vocabularyName, Stemmer stemmer, @SuppressWarnings("rawtypes") Class vocabularyClass) {
-        return vocabularyName + "_" + vocabularyClass.getName() + "_" + stemmer.getClass().getSimpleName() + ".serialized";
+        String extension = vocabularyClass == VocabularyStore_Mapped.class ? ".snapshot" : ".serialized";
+        return vocabularyName + "_" + vocabularyClass.getName() + "_" + stemmer.getClass().getSimpleName() + extension;
     }
 
     public static VocabularyStore createVocabStore(String vocabularyName, Stemmer stemmer, boolean serialize) {
@@ -35,7 +37,19 @@ public class VocabularyStoreFactory {
     
     public static VocabularyStore createVocabStore(String vocabularyName, Stemmer stemmer, boolean serialize, @SuppressWarnings("rawtypes")Class vocabularyClass) {
         VocabularyStore vocab_store = null;
-        if (serialize) {
+        if (serialize && vocabularyClass == VocabularyStore_Mapped.class) {
+            String filename = filenameForVocabulary(vocabularyName, stemmer, vocabularyClass);
+            if (new File(filename).exists()) {
+                log.info("Mapping vocabulary snapshot " + filename);
+                try {
+                    vocab_store = VocabularyStore_Mapped.open(new File(filename));
+                } catch (IOException ex) {
+                    log.error("Error mapping vocabulary snapshot " + filename, ex);
+                }
+            } else {
+                log.info("Vocabulary snapshot doesn't exist. Checked " + filename);
+            }
+        } else if (serialize) {
 	        String filename = filenameForVocabulary(vocabularyName, stemmer, vocabularyClass);
         	log.info("Deserializing vocabulary from " + filename);
 	        try {
@@ -69,6 +83,14 @@ public class VocabularyStoreFactory {
         }
         log.info("Serializing loaded vocabulary");
         String filename = filenameForVocabulary(vocabularyName, stemmer, vocabStore.getClass());
+        if (vocabStore instanceof VocabularyStore_Mapped) {
+            try {
+                ((VocabularyStore_Mapped) vocabStore).writeSnapshot(new File(filename));
+            } catch (IOException ex) {
+                log.error("Error writing vocabulary snapshot", ex);
+            }
+            return;
+        }
         try {
             FileOutputStream fos = new FileOutputStream(filename);
             ObjectOutputStream out = new ObjectOutputStream(fos);
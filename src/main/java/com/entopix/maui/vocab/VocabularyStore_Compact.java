@@ -0,0 +1,562 @@
+package com.entopix.maui.vocab;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+import com.entopix.maui.util.StringIntMap;
+
+/**
+ * Vocabulary store that keeps all relations in primitive int arrays.
+ *
+ * Every concept URI is mapped to a dense int id. Descriptors and
+ * non-descriptor links are plain arrays indexed by that id, while the
+ * sense lists of normalized phrases and the related terms of each concept
+ * are stored in compressed sparse row form: one offsets array and one
+ * flat array of ids. Compared to VocabularyStore_HT this avoids boxed
+ * integers, map entries and one ArrayList per phrase, which is most of
+ * the memory used by large thesauri such as AGROVOC or LCSH.
+ *
+ * Senses and related terms added while loading are collected as pairs
+ * and turned into the row arrays by finishedInitialized(). Terms added
+ * after that are kept in the pending pairs and merged on lookup until the
+ * next call to finishedInitialized(). Lookups never modify the store, so
+ * an initialized store without pending additions can be shared by many
+ * threads.
+ *
+ * Returns the same results as VocabularyStore_HT.
+ */
+public class VocabularyStore_Compact extends VocabularyStore implements Externalizable {
+
+	/** Pending pairs above which additions after initialization are compacted */
+	private static final int MAX_PENDING = 1024;
+
+	String conceptURIPrefix = null;
+
+	/** local name (see encodeURI) --> id */
+	private StringIntMap uriIds = new StringIntMap();
+	/** id --> local name */
+	String[] localNames = new String[16];
+	int numIds = 0;
+
+	/** id --> descriptor, null if the id has no descriptor */
+	String[] terms = new String[16];
+	private int numTerms = 0;
+
+	/** non-descriptor id --> descriptor id, -1 for descriptors */
+	int[] descriptorOf = newIdArray(16);
+	private int numNonDescriptors = 0;
+
+	/** normalized phrase --> phrase index */
+	private StringIntMap phraseIds = new StringIntMap();
+	/** phrase index --> normalized phrase */
+	String[] phrases = new String[16];
+	int numPhrases = 0;
+
+	/** senses of phrase p are senseIds[senseOffsets[p]] .. senseIds[senseOffsets[p + 1] - 1] */
+	int[] senseOffsets = new int[1];
+	int[] senseIds = new int[0];
+
+	/** related ids of id i are relatedIds[relatedOffsets[i]] .. relatedIds[relatedOffsets[i + 1] - 1] */
+	int[] relatedOffsets = new int[1];
+	int[] relatedIds = new int[0];
+	/** ids that have at least one related term */
+	private BitSet hasRelated = new BitSet();
+
+	/** (phrase index, id) pairs not yet in the sense rows */
+	private int[] pendingSensePhrases = new int[16];
+	private int[] pendingSenseIds = new int[16];
+	private int numPendingSenses = 0;
+
+	/** (id, related id) pairs not yet in the related rows */
+	private int[] pendingRelatedFrom = new int[16];
+	private int[] pendingRelatedTo = new int[16];
+	private int numPendingRelated = 0;
+
+	private static int[] newIdArray(int size) {
+		int[] array = new int[size];
+		Arrays.fill(array, -1);
+		return array;
+	}
+
+	/**
+	 * Shortens the URI in the same way as VocabularyStore_HT: the path
+	 * prefix of the first URI seen is cut off all URIs sharing it, all
+	 * other URIs are kept whole and wrapped in angle brackets.
+	 */
+	private String encodeURI(String uri, boolean setPrefix) {
+		String prefix = uri.substring(0, uri.lastIndexOf('/') + 1);
+		if (conceptURIPrefix == null && setPrefix) {
+			conceptURIPrefix = prefix;
+		}
+		if (prefix.equals(conceptURIPrefix)) {
+			return uri.substring(prefix.length());
+		}
+		return "<" + uri + ">";
+	}
+
+	private String decodeURI(int id) {
+		String localName = localNames[id];
+		if (localName.startsWith("<")) {
+			return localName.substring(1, localName.length() - 1);
+		}
+		return conceptURIPrefix + localName;
+	}
+
+	/**
+	 * Returns the id of the URI, or -1 if it has not been added.
+	 */
+	private int getID(String uri) {
+		if (conceptURIPrefix == null) {
+			return -1;
+		}
+		return uriIds.get(encodeURI(uri, false));
+	}
+
+	private int createID(String uri) {
+		String localName = encodeURI(uri, true);
+		int id = uriIds.get(localName);
+		if (id == StringIntMap.NO_VALUE) {
+			id = numIds++;
+			if (id == localNames.length) {
+				int capacity = id * 2;
+				localNames = Arrays.copyOf(localNames, capacity);
+				terms = Arrays.copyOf(terms, capacity);
+				descriptorOf = Arrays.copyOf(descriptorOf, capacity);
+				Arrays.fill(descriptorOf, id, capacity, -1);
+			}
+			localNames[id] = localName;
+			uriIds.put(localName, id);
+		}
+		return id;
+	}
+
+	private int createPhraseID(String phrase) {
+		int p = phraseIds.get(phrase);
+		if (p == StringIntMap.NO_VALUE) {
+			p = numPhrases++;
+			if (p == phrases.length) {
+				phrases = Arrays.copyOf(phrases, p * 2);
+			}
+			phrases[p] = phrase;
+			phraseIds.put(phrase, p);
+		}
+		return p;
+	}
+
+	public void addSense(String descriptor, String id_string) {
+		int id = createID(id_string);
+		int p = createPhraseID(descriptor);
+		if (numPendingSenses == pendingSenseIds.length) {
+			pendingSensePhrases = Arrays.copyOf(pendingSensePhrases, numPendingSenses * 2);
+			pendingSenseIds = Arrays.copyOf(pendingSenseIds, numPendingSenses * 2);
+		}
+		pendingSensePhrases[numPendingSenses] = p;
+		pendingSenseIds[numPendingSenses] = id;
+		numPendingSenses++;
+		if (initialized && numPendingSenses > MAX_PENDING) {
+			compact();
+		}
+	}
+
+	public void addDescriptor(String id_string, String descriptor) {
+		int id = createID(id_string);
+		if (terms[id] == null) {
+			numTerms++;
+		}
+		terms[id] = descriptor;
+	}
+
+	public void addNonDescriptor(String id_string, String nonDescriptor) {
+		int id = createID(id_string);
+		int desc_id = createID(nonDescriptor);
+		if (descriptorOf[id] == -1) {
+			numNonDescriptors++;
+		}
+		descriptorOf[id] = desc_id;
+	}
+
+	public void addRelatedTerm(String term, String relatedTerm) {
+		int term_id = createID(term);
+		int related_id = createID(relatedTerm);
+		if (numPendingRelated == pendingRelatedTo.length) {
+			pendingRelatedFrom = Arrays.copyOf(pendingRelatedFrom, numPendingRelated * 2);
+			pendingRelatedTo = Arrays.copyOf(pendingRelatedTo, numPendingRelated * 2);
+		}
+		pendingRelatedFrom[numPendingRelated] = term_id;
+		pendingRelatedTo[numPendingRelated] = related_id;
+		numPendingRelated++;
+		hasRelated.set(term_id);
+		if (initialized && numPendingRelated > MAX_PENDING) {
+			compact();
+		}
+	}
+
+	@Override
+	public void finishedInitialized() {
+		compact();
+		super.finishedInitialized();
+	}
+
+	/**
+	 * Moves all pending pairs into the row arrays, keeping the order in
+	 * which they were added.
+	 */
+	void compact() {
+		if (numPendingSenses > 0 || senseOffsets.length != numPhrases + 1) {
+			int[][] rows = merge(senseOffsets, senseIds, numPhrases,
+					pendingSensePhrases, pendingSenseIds, numPendingSenses);
+			senseOffsets = rows[0];
+			senseIds = rows[1];
+			numPendingSenses = 0;
+		}
+		if (numPendingRelated > 0 || relatedOffsets.length != numIds + 1) {
+			int[][] rows = merge(relatedOffsets, relatedIds, numIds,
+					pendingRelatedFrom, pendingRelatedTo, numPendingRelated);
+			relatedOffsets = rows[0];
+			relatedIds = rows[1];
+			numPendingRelated = 0;
+			removeDuplicateRelated();
+		}
+		if (pendingSenseIds.length > 16) {
+			pendingSensePhrases = new int[16];
+			pendingSenseIds = new int[16];
+		}
+		if (pendingRelatedTo.length > 16) {
+			pendingRelatedFrom = new int[16];
+			pendingRelatedTo = new int[16];
+		}
+	}
+
+	/**
+	 * Appends the pending (row, value) pairs to the rows given by offsets
+	 * and values, growing the number of rows to numRows.
+	 * @return the new offsets and values
+	 */
+	private static int[][] merge(int[] offsets, int[] values, int numRows,
+			int[] pendingRows, int[] pendingValues, int numPending) {
+		int oldRows = offsets.length - 1;
+		int[] newOffsets = new int[numRows + 1];
+		for (int r = 0; r < oldRows; r++) {
+			newOffsets[r + 1] = offsets[r + 1] - offsets[r];
+		}
+		for (int i = 0; i < numPending; i++) {
+			newOffsets[pendingRows[i] + 1]++;
+		}
+		for (int r = 0; r < numRows; r++) {
+			newOffsets[r + 1] += newOffsets[r];
+		}
+
+		int[] newValues = new int[newOffsets[numRows]];
+		int[] next = Arrays.copyOf(newOffsets, numRows);
+		for (int r = 0; r < oldRows; r++) {
+			int length = offsets[r + 1] - offsets[r];
+			System.arraycopy(values, offsets[r], newValues, next[r], length);
+			next[r] += length;
+		}
+		for (int i = 0; i < numPending; i++) {
+			newValues[next[pendingRows[i]]++] = pendingValues[i];
+		}
+		return new int[][] { newOffsets, newValues };
+	}
+
+	/**
+	 * Drops repeated related terms, keeping the first occurrence, as
+	 * VocabularyStore_HT does on insertion.
+	 */
+	private void removeDuplicateRelated() {
+		int write = 0;
+		int start = relatedOffsets[0];
+		for (int r = 0; r < numIds; r++) {
+			int end = relatedOffsets[r + 1];
+			int rowStart = write;
+			for (int i = start; i < end; i++) {
+				int id = relatedIds[i];
+				boolean seen = false;
+				for (int j = rowStart; j < write && !seen; j++) {
+					seen = relatedIds[j] == id;
+				}
+				if (!seen) {
+					relatedIds[write++] = id;
+				}
+			}
+			start = end;
+			relatedOffsets[r + 1] = write;
+		}
+		if (write < relatedIds.length) {
+			relatedIds = Arrays.copyOf(relatedIds, write);
+		}
+	}
+
+	public int getNumTerms() {
+		return numTerms;
+	}
+
+	public int getNumNonDescriptors() {
+		return numNonDescriptors;
+	}
+
+	public int getNumRelatedTerms() {
+		return hasRelated.cardinality();
+	}
+
+	public ArrayList<String> getRelatedTerms(String id) {
+		int term_id = getID(id);
+		if (term_id == -1 || !hasRelated.get(term_id)) {
+			return null;
+		}
+
+		ArrayList<String> results = new ArrayList<String>();
+		ArrayList<Integer> added = numPendingRelated > 0 ? new ArrayList<Integer>() : null;
+		if (term_id < relatedOffsets.length - 1) {
+			for (int i = relatedOffsets[term_id]; i < relatedOffsets[term_id + 1]; i++) {
+				results.add(decodeURI(relatedIds[i]));
+				if (added != null) {
+					added.add(relatedIds[i]);
+				}
+			}
+		}
+		for (int i = 0; i < numPendingRelated; i++) {
+			if (pendingRelatedFrom[i] == term_id && !added.contains(pendingRelatedTo[i])) {
+				added.add(pendingRelatedTo[i]);
+				results.add(decodeURI(pendingRelatedTo[i]));
+			}
+		}
+		return results;
+	}
+
+	public int getNumSenses(String sense) {
+		int p = phraseIds.get(sense);
+		if (p == StringIntMap.NO_VALUE) {
+			return 0;
+		}
+		int count = p < senseOffsets.length - 1 ? senseOffsets[p + 1] - senseOffsets[p] : 0;
+		for (int i = 0; i < numPendingSenses; i++) {
+			if (pendingSensePhrases[i] == p) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public String getTerm(String id) {
+		int term_id = getID(id);
+		return term_id == -1 ? null : terms[term_id];
+	}
+
+	public Collection<String> getPhrases() {
+		return Arrays.asList(phrases).subList(0, numPhrases);
+	}
+
+	public ArrayList<String> getSensesForPhrase(String phrase) {
+		ArrayList<String> results = new ArrayList<String>();
+		int p = phraseIds.get(phrase);
+		if (p == StringIntMap.NO_VALUE) {
+			return results;
+		}
+
+		int[] senses = new int[4];
+		int numSenses = 0;
+		int rowStart = 0, rowEnd = 0;
+		if (p < senseOffsets.length - 1) {
+			rowStart = senseOffsets[p];
+			rowEnd = senseOffsets[p + 1];
+		}
+		int total = rowEnd - rowStart + numPendingSenses;
+		for (int k = 0; k < total; k++) {
+			int senseId;
+			if (rowStart + k < rowEnd) {
+				senseId = senseIds[rowStart + k];
+			} else {
+				int i = k - (rowEnd - rowStart);
+				if (pendingSensePhrases[i] != p) {
+					continue;
+				}
+				senseId = pendingSenseIds[i];
+			}
+			// 1. retrieve a descriptor if this sense is a non-descriptor
+			if (descriptorOf[senseId] != -1) {
+				senseId = descriptorOf[senseId];
+			}
+			String term = terms[senseId];
+			if (term == null) {
+				continue;
+			}
+			boolean seen = false;
+			for (int j = 0; j < numSenses && !seen; j++) {
+				seen = senses[j] == senseId;
+			}
+			// if ambiguous sense, check if there's a nonambiguous one.
+			if (!seen && term.indexOf('(') == -1) {
+				if (numSenses == senses.length) {
+					senses = Arrays.copyOf(senses, numSenses * 2);
+				}
+				senses[numSenses++] = senseId;
+				results.add(decodeURI(senseId));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public void removeConcepts(Collection<String> ids, boolean removeReferences) {
+		BitSet concepts = new BitSet(numIds);
+		for (String id : ids) {
+			int term_id = getID(id);
+			if (term_id != -1) {
+				concepts.set(term_id);
+			}
+		}
+		if (concepts.isEmpty()) {
+			return;
+		}
+		compact();
+
+		// the concepts and their non-descriptors
+		BitSet removed = (BitSet) concepts.clone();
+		for (int id = 0; id < numIds; id++) {
+			if (descriptorOf[id] != -1 && concepts.get(descriptorOf[id])) {
+				descriptorOf[id] = -1;
+				numNonDescriptors--;
+				removed.set(id);
+			}
+		}
+		for (int id = removed.nextSetBit(0); id >= 0; id = removed.nextSetBit(id + 1)) {
+			if (terms[id] != null) {
+				terms[id] = null;
+				numTerms--;
+			}
+		}
+
+		int[][] rows = filter(senseOffsets, senseIds, new BitSet(), removed);
+		senseOffsets = rows[0];
+		senseIds = rows[1];
+
+		rows = filter(relatedOffsets, relatedIds, concepts, removeReferences ? concepts : new BitSet());
+		relatedOffsets = rows[0];
+		relatedIds = rows[1];
+		hasRelated.clear();
+		for (int id = 0; id < numIds; id++) {
+			if (relatedOffsets[id + 1] > relatedOffsets[id]) {
+				hasRelated.set(id);
+			}
+		}
+	}
+
+	/**
+	 * Removes whole rows and single values from the rows given by offsets
+	 * and values.
+	 * @return the new offsets and values
+	 */
+	private static int[][] filter(int[] offsets, int[] values, BitSet removedRows, BitSet removedValues) {
+		int numRows = offsets.length - 1;
+		int[] newOffsets = new int[numRows + 1];
+		int[] newValues = new int[values.length];
+		int write = 0;
+		for (int r = 0; r < numRows; r++) {
+			if (!removedRows.get(r)) {
+				for (int i = offsets[r]; i < offsets[r + 1]; i++) {
+					if (!removedValues.get(values[i])) {
+						newValues[write++] = values[i];
+					}
+				}
+			}
+			newOffsets[r + 1] = write;
+		}
+		return new int[][] { newOffsets, Arrays.copyOf(newValues, write) };
+	}
+
+	public void writeExternal(ObjectOutput out) throws IOException {
+		compact();
+
+		out.writeBoolean(conceptURIPrefix != null);
+		if (conceptURIPrefix != null) {
+			out.writeUTF(conceptURIPrefix);
+		}
+
+		out.writeInt(numIds);
+		for (int id = 0; id < numIds; id++) {
+			out.writeUTF(localNames[id]);
+			out.writeBoolean(terms[id] != null);
+			if (terms[id] != null) {
+				out.writeUTF(terms[id]);
+			}
+			out.writeInt(descriptorOf[id]);
+		}
+
+		out.writeInt(numPhrases);
+		for (int p = 0; p < numPhrases; p++) {
+			out.writeUTF(phrases[p]);
+		}
+		writeInts(out, senseOffsets);
+		writeInts(out, senseIds);
+		writeInts(out, relatedOffsets);
+		writeInts(out, relatedIds);
+	}
+
+	private static void writeInts(ObjectOutput out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static int[] readInts(ObjectInput in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		conceptURIPrefix = in.readBoolean() ? in.readUTF() : null;
+
+		numIds = in.readInt();
+		int capacity = Math.max(numIds, 16);
+		uriIds = new StringIntMap(numIds);
+		localNames = new String[capacity];
+		terms = new String[capacity];
+		descriptorOf = newIdArray(capacity);
+		numTerms = 0;
+		numNonDescriptors = 0;
+		for (int id = 0; id < numIds; id++) {
+			localNames[id] = in.readUTF();
+			uriIds.put(localNames[id], id);
+			if (in.readBoolean()) {
+				terms[id] = in.readUTF();
+				numTerms++;
+			}
+			descriptorOf[id] = in.readInt();
+			if (descriptorOf[id] != -1) {
+				numNonDescriptors++;
+			}
+		}
+
+		numPhrases = in.readInt();
+		phraseIds = new StringIntMap(numPhrases);
+		phrases = new String[Math.max(numPhrases, 16)];
+		for (int p = 0; p < numPhrases; p++) {
+			phrases[p] = in.readUTF();
+			phraseIds.put(phrases[p], p);
+		}
+		senseOffsets = readInts(in);
+		senseIds = readInts(in);
+		relatedOffsets = readInts(in);
+		relatedIds = readInts(in);
+
+		hasRelated = new BitSet(numIds);
+		for (int id = 0; id < relatedOffsets.length - 1; id++) {
+			if (relatedOffsets[id + 1] > relatedOffsets[id]) {
+				hasRelated.set(id);
+			}
+		}
+
+		finishedInitialized();
+	}
+}
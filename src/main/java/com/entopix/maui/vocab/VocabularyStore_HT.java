@@ -5,7 +5,10 @@ import java.io.ObjectOutput;
 import java.io.ObjectInput;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 
 
@@ -34,6 +37,24 @@ public class VocabularyStore_HT extends VocabularyStore implements Externalizabl
 		return (long) (0.5 * (n1 + n2) * (n1 + n2 + 1) + n2);
 	}
 
+	/**
+	 * Returns the id of a URI added before, or null if it is unknown.
+	 * Unlike createIDFromURI this never modifies the store, so lookups
+	 * can run concurrently once the store is initialized.
+	 */
+	public Integer getIDFromURI(String in) {
+		if (URItoIDMap == null || conceptURIPrefix == null) {
+			return null;
+		}
+		String prefix_current = in.substring(0, in.lastIndexOf('/') + 1);
+		if (prefix_current.equals(conceptURIPrefix)) {
+			in = in.substring(prefix_current.length());
+		} else {
+			in = "<" + in + ">";
+		}
+		return URItoIDMap.get(in);
+	}
+
 	public int createIDFromURI(String in) {
 		String prefix_current = in.substring(0, in.lastIndexOf('/') + 1);
 		if (conceptURIPrefix == null) {
@@ -127,7 +148,10 @@ public class VocabularyStore_HT extends VocabularyStore implements Externalizabl
 	}
 
 	public ArrayList<String> getRelatedTerms(String id) {
-		int term_id = createIDFromURI(id);
+		Integer term_id = getIDFromURI(id);
+		if (term_id == null) {
+			return null;
+		}
 
 		ArrayList<String> results = null;
 
@@ -151,10 +175,17 @@ public class VocabularyStore_HT extends VocabularyStore implements Externalizabl
 	}
 
 	public String getTerm(String id) {
-		int term_id = createIDFromURI(id);
+		Integer term_id = getIDFromURI(id);
+		if (term_id == null) {
+			return null;
+		}
 		return idTermIndex.get(term_id);
 	}
 
+	public Collection<String> getPhrases() {
+		return listsOfSenses.keySet();
+	}
+
 	public ArrayList<String> getSensesForPhrase(String phrase) {
 
 		ArrayList<Integer> senses = new ArrayList<Integer>();
@@ -187,6 +218,53 @@ public class VocabularyStore_HT extends VocabularyStore implements Externalizabl
 		return results;
 	}
 
+	@Override
+	public void removeConcepts(Collection<String> ids, boolean removeReferences) {
+		HashSet<Integer> concepts = new HashSet<Integer>();
+		for (String id : ids) {
+			Integer term_id = getIDFromURI(id);
+			if (term_id != null) {
+				concepts.add(term_id);
+			}
+		}
+		if (concepts.isEmpty()) {
+			return;
+		}
+
+		// the concepts and their non-descriptors
+		HashSet<Integer> removed = new HashSet<Integer>(concepts);
+		Iterator<Map.Entry<Integer, Integer>> nonDescriptors = nonDescriptorIndex.entrySet().iterator();
+		while (nonDescriptors.hasNext()) {
+			Map.Entry<Integer, Integer> e = nonDescriptors.next();
+			if (concepts.contains(e.getValue())) {
+				removed.add(e.getKey());
+				nonDescriptors.remove();
+			}
+		}
+		for (Integer id : removed) {
+			idTermIndex.remove(id);
+		}
+
+		Iterator<ArrayList<Integer>> senses = listsOfSenses.values().iterator();
+		while (senses.hasNext()) {
+			ArrayList<Integer> list = senses.next();
+			if (list.removeAll(removed) && list.isEmpty()) {
+				senses.remove();
+			}
+		}
+
+		listsOfRelatedTerms.keySet().removeAll(concepts);
+		if (removeReferences) {
+			Iterator<ArrayList<Integer>> related = listsOfRelatedTerms.values().iterator();
+			while (related.hasNext()) {
+				ArrayList<Integer> list = related.next();
+				if (list.removeAll(concepts) && list.isEmpty()) {
+					related.remove();
+				}
+			}
+		}
+	}
+
 	public void writeExternal(ObjectOutput out) throws java.io.IOException {
 		// Write non-hashmap objects
 		out.writeUTF(conceptURIPrefix);
@@ -295,11 +373,16 @@ public class VocabularyStore_HT extends VocabularyStore implements Externalizabl
 
 		IDtoURIMap = new HashMap<Integer, String>();
 		URItoIDMap = new HashMap<String, Integer>();
+		// new URIs, e.g. of a SKOS update, get ids after all those in use
+		currentID = 0;
 		for (int i = 0; i < size; i++) {
 			int id = in.readInt();
 			String name = in.readUTF();
 			IDtoURIMap.put(id, name);
 			URItoIDMap.put(name, id);
+			if (id >= currentID) {
+				currentID = id + 1;
+			}
 		}
 
 		finishedInitialized();
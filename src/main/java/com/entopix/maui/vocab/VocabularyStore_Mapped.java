@@ -0,0 +1,521 @@
+package com.entopix.maui.vocab;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Vocabulary store that answers lookups directly from a binary snapshot
+ * file mapped into memory.
+ *
+ * Opening a snapshot only maps the file and reads its header, nothing is
+ * copied to the heap, so startup time does not depend on the size of the
+ * vocabulary and several JVMs using the same snapshot share the page cache.
+ *
+ * A store created with the default constructor collects the vocabulary in a
+ * VocabularyStore_Compact while it is being loaded and answers lookups from
+ * it until the snapshot is written with writeSnapshot(). A store opened from
+ * a snapshot is copied into a VocabularyStore_Compact the first time it is
+ * modified.
+ *
+ * Snapshot format (version 1), all integers big-endian:
+ * <pre>
+ * header      MAGIC, VERSION, numIds, numPhrases, numTerms, numNonDescriptors,
+ *             numRelatedTerms, numSenseIds, numRelatedIds, idTableSize,
+ *             phraseTableSize, URI prefix (string or -1)
+ * localName   [numIds] string
+ * term        [numIds] string or -1
+ * descriptor  [numIds] descriptor id of a non-descriptor, or -1
+ * relatedRow  [numIds + 1] offsets into related
+ * related     [numRelatedIds] id
+ * phrase      [numPhrases] string
+ * senseRow    [numPhrases + 1] offsets into sense
+ * sense       [numSenseIds] id
+ * idTable     [idTableSize] id + 1 of the local name hashed to the slot, or 0
+ * phraseTable [phraseTableSize] phrase + 1 hashed to the slot, or 0
+ * strings     length and UTF-8 bytes of every string
+ * </pre>
+ * Strings are referenced by their byte offset in the strings section.
+ * Both hash tables use linear probing over FNV-1a hashes of the UTF-8 bytes.
+ */
+public class VocabularyStore_Mapped extends VocabularyStore {
+
+	public static final int MAGIC = 0x4D415556;
+
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 12;
+
+	/** Store used while the vocabulary is loaded */
+	private VocabularyStore_Compact builder;
+
+	private ByteBuffer buffer;
+
+	private String conceptURIPrefix;
+
+	private int numIds, numPhrases, numTerms, numNonDescriptors, numRelatedTerms;
+	private int idTableSize, phraseTableSize;
+
+	/** Byte positions of the sections */
+	private int localNamePos, termPos, descriptorPos, relatedRowPos, relatedPos;
+	private int phrasePos, senseRowPos, sensePos, idTablePos, phraseTablePos, stringPos;
+
+	public VocabularyStore_Mapped() {
+		builder = new VocabularyStore_Compact();
+	}
+
+	private VocabularyStore_Mapped(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a vocabulary snapshot");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported vocabulary snapshot version " + buffer.getInt(4));
+		}
+		numIds = buffer.getInt(8);
+		numPhrases = buffer.getInt(12);
+		numTerms = buffer.getInt(16);
+		numNonDescriptors = buffer.getInt(20);
+		numRelatedTerms = buffer.getInt(24);
+		int numSenseIds = buffer.getInt(28);
+		int numRelatedIds = buffer.getInt(32);
+		idTableSize = buffer.getInt(36);
+		phraseTableSize = buffer.getInt(40);
+
+		localNamePos = HEADER_SIZE * 4;
+		termPos = localNamePos + numIds * 4;
+		descriptorPos = termPos + numIds * 4;
+		relatedRowPos = descriptorPos + numIds * 4;
+		relatedPos = relatedRowPos + (numIds + 1) * 4;
+		phrasePos = relatedPos + numRelatedIds * 4;
+		senseRowPos = phrasePos + numPhrases * 4;
+		sensePos = senseRowPos + (numPhrases + 1) * 4;
+		idTablePos = sensePos + numSenseIds * 4;
+		phraseTablePos = idTablePos + idTableSize * 4;
+		stringPos = phraseTablePos + phraseTableSize * 4;
+
+		int prefix = buffer.getInt(44);
+		conceptURIPrefix = prefix == -1 ? null : readString(prefix);
+
+		finishedInitialized();
+	}
+
+	/**
+	 * Maps a snapshot written by writeSnapshot().
+	 */
+	public static VocabularyStore_Mapped open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new VocabularyStore_Mapped(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns true if lookups are answered from a mapped snapshot.
+	 */
+	public boolean isMapped() {
+		return buffer != null;
+	}
+
+	private VocabularyStore_Compact getBuilder() {
+		if (builder == null) {
+			thaw();
+		}
+		return builder;
+	}
+
+	/**
+	 * Copies the snapshot into a VocabularyStore_Compact so that it can be
+	 * modified. Lookups are answered from the copy from then on.
+	 */
+	private void thaw() {
+		builder = toCompact();
+		buffer = null;
+	}
+
+	/**
+	 * Returns a VocabularyStore_Compact with the contents of the snapshot.
+	 */
+	private VocabularyStore_Compact toCompact() {
+		VocabularyStore_Compact store = new VocabularyStore_Compact();
+		for (int id = 0; id < numIds; id++) {
+			String uri = decodeURI(id);
+			int term = intAt(termPos, id);
+			if (term != -1) {
+				store.addDescriptor(uri, readString(term));
+			}
+			int descriptor = intAt(descriptorPos, id);
+			if (descriptor != -1) {
+				store.addNonDescriptor(uri, decodeURI(descriptor));
+			}
+			for (int i = intAt(relatedRowPos, id); i < intAt(relatedRowPos, id + 1); i++) {
+				store.addRelatedTerm(uri, decodeURI(intAt(relatedPos, i)));
+			}
+		}
+		for (int p = 0; p < numPhrases; p++) {
+			String phrase = readString(intAt(phrasePos, p));
+			for (int i = intAt(senseRowPos, p); i < intAt(senseRowPos, p + 1); i++) {
+				store.addSense(phrase, decodeURI(intAt(sensePos, i)));
+			}
+		}
+		store.finishedInitialized();
+		return store;
+	}
+
+	/**
+	 * Returns a store that answers lookups from a copy of the contents in a
+	 * VocabularyStore_Compact. A snapshot is copied without thawing this
+	 * store, which keeps answering lookups from the mapped file.
+	 */
+	@Override
+	public VocabularyStore copy() {
+		VocabularyStore_Mapped copy = new VocabularyStore_Mapped();
+		copy.builder = buffer == null ? (VocabularyStore_Compact) builder.copy() : toCompact();
+		copySettings(copy);
+		return copy;
+	}
+
+	public void addSense(String descriptor, String id) {
+		getBuilder().addSense(descriptor, id);
+	}
+
+	public void addDescriptor(String id_string, String descriptor) {
+		getBuilder().addDescriptor(id_string, descriptor);
+	}
+
+	public void addNonDescriptor(String id, String nonDescriptor) {
+		getBuilder().addNonDescriptor(id, nonDescriptor);
+	}
+
+	public void addRelatedTerm(String term, String relatedTerm) {
+		getBuilder().addRelatedTerm(term, relatedTerm);
+	}
+
+	@Override
+	public void removeConcepts(Collection<String> ids, boolean removeReferences) {
+		getBuilder().removeConcepts(ids, removeReferences);
+	}
+
+	@Override
+	public void finishedInitialized() {
+		if (builder != null) {
+			builder.finishedInitialized();
+		}
+		super.finishedInitialized();
+	}
+
+	public int getNumTerms() {
+		return buffer == null ? builder.getNumTerms() : numTerms;
+	}
+
+	public int getNumNonDescriptors() {
+		return buffer == null ? builder.getNumNonDescriptors() : numNonDescriptors;
+	}
+
+	public int getNumRelatedTerms() {
+		return buffer == null ? builder.getNumRelatedTerms() : numRelatedTerms;
+	}
+
+	public ArrayList<String> getRelatedTerms(String id) {
+		if (buffer == null) {
+			return builder.getRelatedTerms(id);
+		}
+		int term_id = getID(id);
+		if (term_id == -1) {
+			return null;
+		}
+		int start = intAt(relatedRowPos, term_id);
+		int end = intAt(relatedRowPos, term_id + 1);
+		if (start == end) {
+			return null;
+		}
+		ArrayList<String> results = new ArrayList<String>(end - start);
+		for (int i = start; i < end; i++) {
+			results.add(decodeURI(intAt(relatedPos, i)));
+		}
+		return results;
+	}
+
+	public int getNumSenses(String sense) {
+		if (buffer == null) {
+			return builder.getNumSenses(sense);
+		}
+		int p = getPhraseID(sense);
+		if (p == -1) {
+			return 0;
+		}
+		return intAt(senseRowPos, p + 1) - intAt(senseRowPos, p);
+	}
+
+	public String getTerm(String id) {
+		if (buffer == null) {
+			return builder.getTerm(id);
+		}
+		int term_id = getID(id);
+		if (term_id == -1) {
+			return null;
+		}
+		int term = intAt(termPos, term_id);
+		return term == -1 ? null : readString(term);
+	}
+
+	public Collection<String> getPhrases() {
+		if (buffer == null) {
+			return builder.getPhrases();
+		}
+		return new AbstractList<String>() {
+			@Override
+			public String get(int p) {
+				return readString(intAt(phrasePos, p));
+			}
+
+			@Override
+			public int size() {
+				return numPhrases;
+			}
+		};
+	}
+
+	public ArrayList<String> getSensesForPhrase(String phrase) {
+		if (buffer == null) {
+			return builder.getSensesForPhrase(phrase);
+		}
+		ArrayList<String> results = new ArrayList<String>();
+		int p = getPhraseID(phrase);
+		if (p == -1) {
+			return results;
+		}
+		int start = intAt(senseRowPos, p);
+		int end = intAt(senseRowPos, p + 1);
+		int[] senses = new int[end - start];
+		int numSenses = 0;
+		for (int i = start; i < end; i++) {
+			int senseId = intAt(sensePos, i);
+			// 1. retrieve a descriptor if this sense is a non-descriptor
+			int descriptor = intAt(descriptorPos, senseId);
+			if (descriptor != -1) {
+				senseId = descriptor;
+			}
+			int term = intAt(termPos, senseId);
+			if (term == -1) {
+				continue;
+			}
+			boolean seen = false;
+			for (int j = 0; j < numSenses && !seen; j++) {
+				seen = senses[j] == senseId;
+			}
+			// if ambiguous sense, check if there's a nonambiguous one.
+			if (!seen && readString(term).indexOf('(') == -1) {
+				senses[numSenses++] = senseId;
+				results.add(decodeURI(senseId));
+			}
+		}
+		return results;
+	}
+
+	private int intAt(int section, int index) {
+		return buffer.getInt(section + index * 4);
+	}
+
+	private String readString(int offset) {
+		int pos = stringPos + offset;
+		byte[] bytes = new byte[buffer.getInt(pos)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(pos + 4 + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private boolean stringEquals(int offset, byte[] bytes) {
+		int pos = stringPos + offset;
+		if (buffer.getInt(pos) != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (buffer.get(pos + 4 + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Looks up the key in one of the hash tables.
+	 * @return the index stored for the key, or -1
+	 */
+	private int find(byte[] key, int tablePos, int tableSize, int stringsPos) {
+		int mask = tableSize - 1;
+		int slot = hash(key) & mask;
+		int entry;
+		while ((entry = intAt(tablePos, slot)) != 0) {
+			if (stringEquals(intAt(stringsPos, entry - 1), key)) {
+				return entry - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private int getPhraseID(String phrase) {
+		return find(phrase.getBytes(StandardCharsets.UTF_8), phraseTablePos, phraseTableSize, phrasePos);
+	}
+
+	/**
+	 * Returns the id of the URI, shortened as in VocabularyStore_Compact,
+	 * or -1 if the snapshot does not contain it.
+	 */
+	private int getID(String uri) {
+		if (conceptURIPrefix == null) {
+			return -1;
+		}
+		String prefix = uri.substring(0, uri.lastIndexOf('/') + 1);
+		String localName = prefix.equals(conceptURIPrefix) ? uri.substring(prefix.length()) : "<" + uri + ">";
+		return find(localName.getBytes(StandardCharsets.UTF_8), idTablePos, idTableSize, localNamePos);
+	}
+
+	private String decodeURI(int id) {
+		String localName = readString(intAt(localNamePos, id));
+		if (localName.startsWith("<")) {
+			return localName.substring(1, localName.length() - 1);
+		}
+		return conceptURIPrefix + localName;
+	}
+
+	private static int hash(byte[] bytes) {
+		int h = 0x811C9DC5;
+		for (byte b : bytes) {
+			h = (h ^ (b & 0xFF)) * 0x01000193;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static int tableSize(int numKeys) {
+		int size = 16;
+		while (size < numKeys * 2) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+	/**
+	 * Writes the vocabulary loaded into this store as a snapshot that can be
+	 * opened with open(). Snapshots are written to a temporary file first and
+	 * then renamed, so processes that have mapped an older snapshot at the
+	 * same path keep reading the old file.
+	 */
+	public void writeSnapshot(File file) throws IOException {
+		writeSnapshot(getBuilder(), file);
+	}
+
+	/**
+	 * Writes the contents of a compact store as a snapshot that can be
+	 * opened with open().
+	 */
+	public static void writeSnapshot(VocabularyStore_Compact store, File file) throws IOException {
+		store.compact();
+		int numIds = store.numIds;
+		int numPhrases = store.numPhrases;
+
+		ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+		DataOutputStream strings = new DataOutputStream(stringBytes);
+
+		int[] localNames = new int[numIds];
+		int[] terms = new int[numIds];
+		byte[][] localNameBytes = new byte[numIds][];
+		int numRelatedTerms = 0;
+		for (int id = 0; id < numIds; id++) {
+			localNameBytes[id] = store.localNames[id].getBytes(StandardCharsets.UTF_8);
+			localNames[id] = writeString(strings, localNameBytes[id]);
+			String term = store.terms[id];
+			terms[id] = term == null ? -1 : writeString(strings, term.getBytes(StandardCharsets.UTF_8));
+			if (store.relatedOffsets[id + 1] > store.relatedOffsets[id]) {
+				numRelatedTerms++;
+			}
+		}
+		int[] phrases = new int[numPhrases];
+		byte[][] phraseBytes = new byte[numPhrases][];
+		for (int p = 0; p < numPhrases; p++) {
+			phraseBytes[p] = store.phrases[p].getBytes(StandardCharsets.UTF_8);
+			phrases[p] = writeString(strings, phraseBytes[p]);
+		}
+		int prefix = store.conceptURIPrefix == null ? -1
+				: writeString(strings, store.conceptURIPrefix.getBytes(StandardCharsets.UTF_8));
+		strings.flush();
+
+		int[] idTable = buildTable(localNameBytes);
+		int[] phraseTable = buildTable(phraseBytes);
+
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numIds);
+			out.writeInt(numPhrases);
+			out.writeInt(store.getNumTerms());
+			out.writeInt(store.getNumNonDescriptors());
+			out.writeInt(numRelatedTerms);
+			out.writeInt(store.senseIds.length);
+			out.writeInt(store.relatedIds.length);
+			out.writeInt(idTable.length);
+			out.writeInt(phraseTable.length);
+			out.writeInt(prefix);
+
+			writeInts(out, localNames, numIds);
+			writeInts(out, terms, numIds);
+			writeInts(out, store.descriptorOf, numIds);
+			writeInts(out, store.relatedOffsets, numIds + 1);
+			writeInts(out, store.relatedIds, store.relatedIds.length);
+			writeInts(out, phrases, numPhrases);
+			writeInts(out, store.senseOffsets, numPhrases + 1);
+			writeInts(out, store.senseIds, store.senseIds.length);
+			writeInts(out, idTable, idTable.length);
+			writeInts(out, phraseTable, phraseTable.length);
+			stringBytes.writeTo(out);
+		} finally {
+			out.close();
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static int writeString(DataOutputStream strings, byte[] bytes) throws IOException {
+		int offset = strings.size();
+		strings.writeInt(bytes.length);
+		strings.write(bytes);
+		return offset;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values, int length) throws IOException {
+		for (int i = 0; i < length; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	private static int[] buildTable(byte[][] keys) {
+		int[] table = new int[tableSize(keys.length)];
+		int mask = table.length - 1;
+		for (int i = 0; i < keys.length; i++) {
+			int slot = hash(keys[i]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+		return table;
+	}
+}
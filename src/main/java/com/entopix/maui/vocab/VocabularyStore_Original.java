@@ -1,7 +1,10 @@
 package com.entopix.maui.vocab;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 
 
@@ -93,6 +96,10 @@ public class VocabularyStore_Original extends VocabularyStore implements Externa
 	public String getTerm(String id){
 		return idTermIndex.get(id);
 	}
+	public Collection<String> getPhrases() {
+		return listsOfSenses.keySet();
+	}
+
 	public ArrayList<String> getSensesForPhrase(String phrase) {
 
 		ArrayList<String> senses = new ArrayList<String>();
@@ -120,6 +127,42 @@ public class VocabularyStore_Original extends VocabularyStore implements Externa
 		return senses;
 	}
 
+	@Override
+	public void removeConcepts(Collection<String> ids, boolean removeReferences) {
+		HashSet<String> concepts = new HashSet<String>(ids);
+
+		// the concepts and their non-descriptors
+		HashSet<String> removed = new HashSet<String>(concepts);
+		Iterator<Map.Entry<String, String>> nonDescriptors = nonDescriptorIndex.entrySet().iterator();
+		while (nonDescriptors.hasNext()) {
+			Map.Entry<String, String> e = nonDescriptors.next();
+			if (concepts.contains(e.getValue())) {
+				removed.add(e.getKey());
+				nonDescriptors.remove();
+			}
+		}
+		idTermIndex.keySet().removeAll(removed);
+
+		Iterator<ArrayList<String>> senses = listsOfSenses.values().iterator();
+		while (senses.hasNext()) {
+			ArrayList<String> list = senses.next();
+			if (list.removeAll(removed) && list.isEmpty()) {
+				senses.remove();
+			}
+		}
+
+		listsOfRelatedTerms.keySet().removeAll(concepts);
+		if (removeReferences) {
+			Iterator<ArrayList<String>> related = listsOfRelatedTerms.values().iterator();
+			while (related.hasNext()) {
+				ArrayList<String> list = related.next();
+				if (list.removeAll(concepts) && list.isEmpty()) {
+					related.remove();
+				}
+			}
+		}
+	}
+
 	public void writeExternal(ObjectOutput out) throws java.io.IOException {
 		/** reverse index : id --> descriptor */
 		out.writeInt(idTermIndex.size());
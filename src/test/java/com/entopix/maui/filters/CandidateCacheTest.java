@@ -0,0 +1,125 @@
+package com.entopix.maui.filters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.entopix.maui.util.Candidate;
+import com.entopix.maui.vocab.Vocabulary;
+
+/**
+ * Checks that MauiFilter.getCandidates normalizes each form of a document
+ * once, as long as fewer forms than the limit have been remembered, and
+ * forgets them between documents.
+ */
+public class CandidateCacheTest {
+
+	/** "meat" is the third form, repeated after the first two */
+	private static final String TEXT = "forest hunting meat meat forest meat";
+
+	/**
+	 * Counts the pseudo phrases it computes.
+	 */
+	private static class CountingFilter extends MauiFilter {
+
+		private static final long serialVersionUID = 1L;
+
+		int numPseudoPhrases = 0;
+
+		@Override
+		public String pseudoPhrase(String str) {
+			numPseudoPhrases++;
+			return super.pseudoPhrase(str);
+		}
+	}
+
+	/**
+	 * Gives every phrase one sense and counts the lookups.
+	 */
+	private static class CountingVocabulary extends Vocabulary {
+
+		int numLookups = 0;
+
+		@Override
+		public ArrayList<String> getSenses(String phrase) {
+			numLookups++;
+			ArrayList<String> senses = new ArrayList<String>();
+			senses.add("c_" + phrase);
+			return senses;
+		}
+
+		@Override
+		public String getTerm(String id) {
+			return id.substring(2);
+		}
+	}
+
+	private static CountingFilter newFilter(String vocabularyName) {
+		CountingFilter filter = new CountingFilter();
+		filter.setVocabularyName(vocabularyName);
+		filter.setMinPhraseLength(1);
+		filter.setMaxPhraseLength(1);
+		filter.setMinNumOccur(1);
+		return filter;
+	}
+
+	private static void assertFrequencies(HashMap<String, Candidate> candidates) {
+		HashMap<String, Double> frequencies = new HashMap<String, Double>();
+		for (Candidate candidate : candidates.values()) {
+			frequencies.put(candidate.getBestFullForm(), candidate.getFrequency());
+		}
+		HashMap<String, Double> expected = new HashMap<String, Double>();
+		expected.put("forest", 2.0);
+		expected.put("hunting", 1.0);
+		expected.put("meat", 3.0);
+		assertEquals(expected, frequencies);
+	}
+
+	@Test
+	public void testPseudoPhrases() {
+		CountingFilter filter = newFilter("none");
+
+		assertFrequencies(filter.getCandidates(TEXT));
+		assertEquals(3, filter.numPseudoPhrases);
+
+		// the forms of the previous document are not remembered
+		filter.numPseudoPhrases = 0;
+		filter.getCandidates(TEXT);
+		assertEquals(3, filter.numPseudoPhrases);
+
+		// only forest and hunting are remembered
+		filter.numPseudoPhrases = 0;
+		assertFrequencies(filter.getCandidates(TEXT, 2));
+		assertEquals(5, filter.numPseudoPhrases);
+
+		filter.numPseudoPhrases = 0;
+		assertFrequencies(filter.getCandidates(TEXT, 0));
+		assertEquals(6, filter.numPseudoPhrases);
+	}
+
+	@Test
+	public void testSenses() {
+		CountingFilter filter = newFilter("agrovoc.rdf");
+		CountingVocabulary vocabulary = new CountingVocabulary();
+		filter.setVocabulary(vocabulary);
+
+		assertFrequencies(filter.getCandidates(TEXT));
+		assertEquals(3, vocabulary.numLookups);
+		assertEquals(0, filter.numPseudoPhrases);
+
+		vocabulary.numLookups = 0;
+		filter.getCandidates(TEXT);
+		assertEquals(3, vocabulary.numLookups);
+
+		vocabulary.numLookups = 0;
+		assertFrequencies(filter.getCandidates(TEXT, 2));
+		assertEquals(5, vocabulary.numLookups);
+
+		vocabulary.numLookups = 0;
+		assertFrequencies(filter.getCandidates(TEXT, 0));
+		assertEquals(6, vocabulary.numLookups);
+	}
+}
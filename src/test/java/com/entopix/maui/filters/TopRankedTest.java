@@ -0,0 +1,92 @@
+package com.entopix.maui.filters;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import weka.core.Utils;
+
+/**
+ * Checks that MauiFilter.topRanked selects the same candidates in the same
+ * order as the three stable sorts it replaced, including values within
+ * Weka's tolerance of each other and missing values.
+ */
+public class TopRankedTest {
+
+	private static int[] permute(int[] order, int[] sorted) {
+		int[] result = new int[order.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = order[sorted[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * Ranks all candidates by distance, then tfidf, then probability with
+	 * stable sorts, the last sort deciding first.
+	 */
+	private static int[] referenceOrder(double[] distances, double[] tfidfs, double[] probabilities) {
+		int[] order = Utils.stableSort(distances);
+		double[] vals = new double[order.length];
+		for (int i = 0; i < vals.length; i++) {
+			vals[i] = -tfidfs[order[i]];
+		}
+		order = permute(order, Utils.stableSort(vals));
+		for (int i = 0; i < vals.length; i++) {
+			vals[i] = 1 - probabilities[order[i]];
+		}
+		return permute(order, Utils.stableSort(vals));
+	}
+
+	private static int[] referenceTop(int[] order, double[] probabilities, int k, double minProbability) {
+		int[] top = new int[Math.min(k, order.length)];
+		int size = 0;
+		for (int i = 0; i < order.length && size < top.length; i++) {
+			if (!(probabilities[order[i]] <= minProbability)) {
+				top[size++] = order[i];
+			}
+		}
+		return Arrays.copyOf(top, size);
+	}
+
+	/**
+	 * Returns one of a few values, often moved by less than Weka's
+	 * tolerance so that near ties chain, and sometimes missing.
+	 */
+	private static double value(Random random, int numValues, double scale) {
+		if (random.nextInt(15) == 0) {
+			return Double.NaN;
+		}
+		double value = random.nextInt(numValues) * scale;
+		if (random.nextBoolean()) {
+			value += random.nextInt(4) * 0.4 * Utils.SMALL;
+		}
+		return value;
+	}
+
+	@Test
+	public void testSameAsStableSorts() {
+		Random random = new Random(7);
+		for (int trial = 0; trial < 2000; trial++) {
+			int n = random.nextInt(40);
+			double[] distances = new double[n];
+			double[] tfidfs = new double[n];
+			double[] probabilities = new double[n];
+			for (int i = 0; i < n; i++) {
+				distances[i] = value(random, 5, 0.25);
+				tfidfs[i] = value(random, 4, 0.37);
+				probabilities[i] = value(random, 11, 0.1);
+			}
+			int[] order = referenceOrder(distances, tfidfs, probabilities);
+			for (int k = 0; k <= n; k++) {
+				assertArrayEquals(Arrays.copyOf(order, k),
+						MauiFilter.topRanked(distances, tfidfs, probabilities, k));
+				assertArrayEquals(referenceTop(order, probabilities, k, 0.3),
+						MauiFilter.topRanked(distances, tfidfs, probabilities, k, 0.3));
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.entopix.maui.stemmers.CachingStemmer;
+import com.entopix.maui.stemmers.PorterStemmer;
+import com.entopix.maui.stemmers.Stemmer;
+import com.entopix.maui.util.LRUCache;
+
+public class CachingStemmerTest {
+
+	private Stemmer stemmer;
+
+	private Stemmer cachingStemmer;
+
+	@Before
+	public void setUp() throws Exception {
+		stemmer = new PorterStemmer();
+		cachingStemmer = new CachingStemmer(new PorterStemmer(), 2);
+	}
+
+	/**
+	 * Counts the words it stems.
+	 */
+	private static class CountingStemmer extends PorterStemmer {
+
+		private static final long serialVersionUID = 1L;
+
+		int numStemmed = 0;
+
+		@Override
+		public String stem(String str) {
+			numStemmed++;
+			return super.stem(str);
+		}
+	}
+
+	@Test
+	public void testSameStems() {
+		String[] words = {"forests", "forestry", "forests", "hunting", "meat", "forests", "hunting"};
+		for (String word : words) {
+			assertEquals(stemmer.stem(word), cachingStemmer.stem(word));
+		}
+	}
+
+	@Test
+	public void testCacheHitsAndEviction() {
+		CountingStemmer counting = new CountingStemmer();
+		Stemmer caching = new CachingStemmer(counting, 2);
+
+		assertEquals("forest", caching.stem("forests"));
+		assertEquals("hunt", caching.stem("hunting"));
+		assertEquals(2, counting.numStemmed);
+
+		// a cache hit does not use the wrapped stemmer
+		assertEquals("forest", caching.stem("forests"));
+		assertEquals(2, counting.numStemmed);
+
+		// evicts hunting, the least recently used word
+		assertEquals("meat", caching.stem("meat"));
+		assertEquals(3, counting.numStemmed);
+		assertEquals("forest", caching.stem("forests"));
+		assertEquals(3, counting.numStemmed);
+		assertEquals("hunt", caching.stem("hunting"));
+		assertEquals(4, counting.numStemmed);
+	}
+
+	@Test
+	public void testLRUCache() {
+		LRUCache<String, String> cache = new LRUCache<String, String>(2);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		assertEquals("1", cache.get("a"));
+		cache.put("c", "3");
+		assertEquals(2, cache.size());
+		assertEquals(2, cache.getCapacity());
+		assertTrue(cache.containsKey("a"));
+		assertFalse(cache.containsKey("b"));
+		assertTrue(cache.containsKey("c"));
+	}
+
+}
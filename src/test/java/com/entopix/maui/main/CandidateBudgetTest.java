@@ -0,0 +1,114 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.entopix.maui.filters.MauiFilter;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.MauiDocument;
+import com.entopix.maui.util.MauiTopics;
+import com.entopix.maui.util.Topic;
+
+/**
+ * Compares the topics extracted with a candidate budget to those extracted
+ * with all candidates scored, on the bundled test sets.
+ */
+public class CandidateBudgetTest {
+
+	private static final Logger log = LoggerFactory.getLogger(CandidateBudgetTest.class);
+
+	private static final int[] BUDGETS = {200, 100, 50, 25};
+
+	private int[] budgetQuality(MauiModelBuilder modelBuilder, MauiTopicExtractor topicExtractor,
+			String trainDir, String testDir) throws Exception {
+		MauiFilter model = modelBuilder.buildModel(DataLoader.loadTestDocuments(trainDir));
+		topicExtractor.setModel(model);
+		topicExtractor.setTopicProbability(0.0);
+		List<MauiDocument> testDocs = DataLoader.loadTestDocuments(testDir);
+		List<MauiTopics> expected = topicExtractor.extractTopics(testDocs);
+
+		// a budget larger than the number of candidates changes nothing
+		topicExtractor.candidateBudget = Integer.MAX_VALUE;
+		assertEquals(titles(expected), titles(topicExtractor.extractTopics(testDocs)));
+
+		int[] kept = new int[BUDGETS.length];
+		for (int i = 0; i < BUDGETS.length; i++) {
+			topicExtractor.candidateBudget = BUDGETS[i];
+			List<MauiTopics> actual = topicExtractor.extractTopics(testDocs);
+
+			// the budget is passed to each extraction, and the model keeps
+			// scoring and outputting all candidates
+			assertEquals(0, model.getCandidateBudget());
+			assertEquals(0, model.getTopicsPerDocument());
+			topicExtractor.numThreads = 4;
+			assertEquals(titles(actual), titles(topicExtractor.extractTopics(testDocs)));
+			topicExtractor.numThreads = 1;
+
+			Set<String> expectedTitles = titles(expected);
+			Set<String> actualTitles = titles(actual);
+			actualTitles.retainAll(expectedTitles);
+			kept[i] = actualTitles.size();
+			log.info("Candidate budget " + BUDGETS[i] + ": " + kept[i] + " of " + expectedTitles.size()
+					+ " topics kept, " + numCorrect(actual) + " correct instead of " + numCorrect(expected));
+		}
+		topicExtractor.candidateBudget = 0;
+		return kept;
+	}
+
+	private static Set<String> titles(List<MauiTopics> allTopics) {
+		Set<String> titles = new HashSet<String>();
+		for (MauiTopics topics : allTopics) {
+			for (Topic topic : topics.getTopics()) {
+				titles.add(topics.getFilePath() + "\t" + topic.getTitle());
+			}
+		}
+		return titles;
+	}
+
+	private static int numCorrect(List<MauiTopics> allTopics) {
+		int correct = 0;
+		for (MauiTopics topics : allTopics) {
+			for (Topic topic : topics.getTopics()) {
+				if (topic.isCorrect()) {
+					correct++;
+				}
+			}
+		}
+		return correct;
+	}
+
+	private static void assertMostKept(int[] kept) {
+		for (int i = 1; i < kept.length; i++) {
+			assertTrue(kept[i] <= kept[i - 1] + 1);
+		}
+		assertTrue(kept[0] > 0);
+	}
+
+	@Test
+	public void testAutomaticTagging() throws Exception {
+		MauiModelBuilder modelBuilder = new MauiModelBuilder();
+		modelBuilder.minNumOccur = 2;
+		assertMostKept(budgetQuality(modelBuilder, new MauiTopicExtractor(),
+				"src/test/resources/data/automatic_tagging/train",
+				"src/test/resources/data/automatic_tagging/test"));
+	}
+
+	@Test
+	public void testTermAssignment() throws Exception {
+		String vocabulary = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+		MauiModelBuilder modelBuilder = new MauiModelBuilder();
+		modelBuilder.vocabularyName = vocabulary;
+		modelBuilder.vocabularyFormat = "skos";
+		assertMostKept(budgetQuality(modelBuilder, new MauiTopicExtractor(),
+				"src/test/resources/data/term_assignment/train",
+				"src/test/resources/data/term_assignment/test"));
+	}
+}
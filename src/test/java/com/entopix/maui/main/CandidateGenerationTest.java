@@ -0,0 +1,214 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.entopix.maui.filters.MauiFilter;
+import com.entopix.maui.filters.MauiPhraseFilter;
+import com.entopix.maui.filters.NumbersFilter;
+import com.entopix.maui.stemmers.PorterStemmer;
+import com.entopix.maui.stopwords.Stopwords;
+import com.entopix.maui.stopwords.StopwordsEnglish;
+import com.entopix.maui.util.Candidate;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.MauiDocument;
+import com.entopix.maui.vocab.Vocabulary;
+
+/**
+ * Compares MauiFilter.getCandidates with the StringBuffer.insert based
+ * implementation it replaced, on the bundled free indexing and term
+ * assignment documents.
+ */
+public class CandidateGenerationTest {
+
+	private static final int[][] PHRASE_LENGTHS = {{1, 5}, {1, 1}, {2, 3}, {3, 7}};
+
+	private static Vocabulary vocabulary;
+
+	private Stopwords stopwords = new StopwordsEnglish();
+
+	@BeforeClass
+	public static void loadVocabulary() {
+		vocabulary = VocabularyAssert.newVocabulary("en", new PorterStemmer(), new StopwordsEnglish());
+		vocabulary.initializeVocabulary(VocabularyAssert.AGROVOC_SAMPLE, "skos");
+	}
+
+	@Test
+	public void testFreeIndexing() throws Exception {
+		assertSameCandidates("src/test/resources/data/automatic_tagging/train", "none", 2);
+	}
+
+	@Test
+	public void testTermAssignment() throws Exception {
+		assertSameCandidates("src/test/resources/data/term_assignment/test", "agrovoc_sample.rdf", 1);
+	}
+
+	private void assertSameCandidates(String dir, String vocabularyName, int minNumOccur) throws Exception {
+		List<String> texts = new ArrayList<String>();
+		MauiPhraseFilter phraseFilter = new MauiPhraseFilter();
+		NumbersFilter numbersFilter = new NumbersFilter();
+		for (MauiDocument document : DataLoader.loadTestDocuments(dir)) {
+			// the filtered text is what the filter sees when building
+			// models, the raw text and the text with some double spaces
+			// have phrases that are not a contiguous part of the text
+			texts.add(document.getTextContent());
+			texts.add(document.getTextContent().replace(" s", "  s"));
+			texts.add(numbersFilter.filterNumbers(phraseFilter.tokenize(document.getTextContent())));
+		}
+		assertFalse(texts.isEmpty());
+
+		for (int[] lengths : PHRASE_LENGTHS) {
+			MauiFilter filter = new MauiFilter();
+			filter.setVocabularyName(vocabularyName);
+			filter.setVocabulary(vocabulary);
+			filter.setMinPhraseLength(lengths[0]);
+			filter.setMaxPhraseLength(lengths[1]);
+			filter.setMinNumOccur(minNumOccur);
+			for (String text : texts) {
+				HashMap<String, Candidate> expected = referenceGetCandidates(filter,
+						!vocabularyName.equals("none"), text, lengths[0], lengths[1], minNumOccur);
+				assertSameCandidates(expected, filter.getCandidates(text));
+			}
+		}
+	}
+
+	private static void assertSameCandidates(HashMap<String, Candidate> expected,
+			HashMap<String, Candidate> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Candidate candidate : expected.values()) {
+			Candidate other = actual.get(candidate.getName());
+			assertNotNull(other);
+			assertEquals(candidate.getName(), other.getName());
+			assertEquals(candidate.getTitle(), other.getTitle());
+			assertEquals(candidate.getBestFullForm(), other.getBestFullForm());
+			assertEquals(candidate.getFullForms().keySet(), other.getFullForms().keySet());
+			for (String form : candidate.getFullForms().keySet()) {
+				assertEquals(candidate.getFullForms().get(form).value(), other.getFullForms().get(form).value());
+			}
+			assertEquals(candidate.getFrequency(), other.getFrequency(), 0.0);
+			// relative to the total frequency of the document
+			assertEquals(candidate.getTermFrequency(), other.getTermFrequency(), 0.0);
+			assertEquals(candidate.getFirstOccurrence(), other.getFirstOccurrence(), 0.0);
+			assertEquals(candidate.getLastOccurrence(), other.getLastOccurrence(), 0.0);
+		}
+	}
+
+	/**
+	 * The previous implementation of getCandidates
+	 */
+	private HashMap<String, Candidate> referenceGetCandidates(MauiFilter filter, boolean controlled,
+			String text, int minPhraseLength, int maxPhraseLength, int minOccurFrequency) {
+
+		HashMap<String, Candidate> candidatesTable = new HashMap<String, Candidate>();
+
+		String[] buffer = new String[maxPhraseLength];
+
+		StringTokenizer tok = new StringTokenizer(text, "\n");
+		int pos = 0;
+		int totalFrequency = 0;
+		int firstWord = 0;
+		while (tok.hasMoreTokens()) {
+			String token = tok.nextToken();
+
+			int numSeen = 0;
+			StringTokenizer wordTok = new StringTokenizer(token, " ");
+
+			while (wordTok.hasMoreTokens()) {
+
+				pos++;
+
+				String word = wordTok.nextToken();
+
+				// Store word in buffer
+				for (int i = 0; i < maxPhraseLength - 1; i++) {
+					buffer[i] = buffer[i + 1];
+				}
+				buffer[maxPhraseLength - 1] = word;
+
+				// How many are buffered?
+				numSeen++;
+				if (numSeen > maxPhraseLength) {
+					numSeen = maxPhraseLength;
+				}
+
+				// Don't consider phrases that end with a stop word
+				if (stopwords.isStopword(buffer[maxPhraseLength - 1])) {
+					continue;
+				}
+
+				// Loop through buffer and add phrases to hashtable
+				StringBuffer phraseBuffer = new StringBuffer();
+				for (int i = 1; i <= numSeen; i++) {
+					if (i > 1) {
+						phraseBuffer.insert(0, ' ');
+					}
+					phraseBuffer.insert(0, buffer[maxPhraseLength - i]);
+
+					// Don't consider phrases that begin with a stop word
+					if ((i > 1) && (stopwords.isStopword(buffer[maxPhraseLength - i]))) {
+						continue;
+					}
+
+					// Only consider phrases with minimum length
+					if (i >= minPhraseLength) {
+
+						String form = phraseBuffer.toString();
+
+						ArrayList<String> candidateNames = new ArrayList<String>();
+
+						if (!controlled) {
+							String phrase = filter.pseudoPhrase(form);
+							if (phrase != null) {
+								candidateNames.add(phrase);
+							}
+							totalFrequency++;
+						} else {
+							for (String sense : vocabulary.getSenses(form)) {
+								candidateNames.add(sense);
+							}
+						}
+
+						for (String name : candidateNames) {
+							Candidate candidate = candidatesTable.get(name);
+							firstWord = pos - i;
+							if (candidate == null) {
+								candidate = new Candidate(name, form, firstWord);
+								if (controlled) {
+									candidate.setTitle(vocabulary.getTerm(name));
+								}
+							} else {
+								candidate.recordOccurrence(form, firstWord);
+							}
+							totalFrequency++;
+							candidatesTable.put(name, candidate);
+						}
+					}
+				}
+			}
+		}
+
+		Set<String> keys = new HashSet<String>();
+		keys.addAll(candidatesTable.keySet());
+		for (String key : keys) {
+			Candidate candidate = candidatesTable.get(key);
+			if (candidate.getFrequency() < minOccurFrequency) {
+				candidatesTable.remove(key);
+			} else {
+				candidate.normalize(totalFrequency, pos);
+			}
+		}
+
+		return candidatesTable;
+	}
+}
@@ -0,0 +1,133 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.meta.Bagging;
+import weka.classifiers.trees.J48;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import com.entopix.maui.filters.CompiledTreeEnsemble;
+
+/**
+ * Checks that compiled trees give the same probabilities as the classifiers
+ * they were compiled from, with numeric and nominal attributes and missing
+ * values.
+ */
+public class CompiledTreeEnsembleTest {
+
+	private Instances train;
+
+	private Instances test;
+
+	private static Instances newData(String name, int capacity, boolean nominalClass) {
+		FastVector atts = new FastVector();
+		for (int i = 0; i < 5; i++) {
+			atts.addElement(new Attribute("Numeric_" + i));
+		}
+		FastVector colours = new FastVector(3);
+		colours.addElement("red");
+		colours.addElement("green");
+		colours.addElement("blue");
+		atts.addElement(new Attribute("Colour", colours));
+		if (nominalClass) {
+			FastVector vals = new FastVector(2);
+			vals.addElement("False");
+			vals.addElement("True");
+			atts.addElement(new Attribute("Keyphrase?", vals));
+		} else {
+			atts.addElement(new Attribute("Keyphrase?"));
+		}
+		Instances data = new Instances(name, atts, capacity);
+		data.setClassIndex(atts.size() - 1);
+		return data;
+	}
+
+	/**
+	 * Fills the data with instances whose class depends on some of their
+	 * values, with noise and about one missing value in ten.
+	 */
+	private static void fill(Instances data, int numInstances, Random random) {
+		for (int n = 0; n < numInstances; n++) {
+			double[] vals = new double[data.numAttributes()];
+			for (int i = 0; i < 5; i++) {
+				vals[i] = i == 4 ? random.nextInt(4) : random.nextDouble();
+			}
+			vals[5] = random.nextInt(3);
+			boolean positive = vals[0] + vals[1] * vals[4] > 1.2 || (vals[5] == 2 && vals[2] < 0.3);
+			if (random.nextDouble() < 0.1) {
+				positive = !positive;
+			}
+			vals[6] = positive ? 1 : 0;
+			for (int i = 0; i < 6; i++) {
+				if (random.nextDouble() < 0.1) {
+					vals[i] = Instance.missingValue();
+				}
+			}
+			Instance inst = new Instance(1.0, vals);
+			inst.setDataset(data);
+			data.add(inst);
+		}
+	}
+
+	@Before
+	public void createData() {
+		Random random = new Random(42);
+		train = newData("train", 500, true);
+		fill(train, 500, random);
+		test = newData("test", 2000, true);
+		fill(test, 2000, random);
+	}
+
+	private void assertSameProbabilities(Classifier classifier) throws Exception {
+		classifier.buildClassifier(train);
+		CompiledTreeEnsemble compiled = CompiledTreeEnsemble.compile(classifier, new Instances(train, 0));
+		assertNotNull(compiled);
+		for (int i = 0; i < test.numInstances(); i++) {
+			Instance inst = test.instance(i);
+			double[] expected = classifier.distributionForInstance(inst);
+			double[] features = inst.toDoubleArray();
+			for (int c = 0; c < expected.length; c++) {
+				assertEquals(expected[c], compiled.probability(features, c), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testBaggedTrees() throws Exception {
+		Bagging bagging = new Bagging();
+		bagging.setOptions(Utils.splitOptions("-P 10 -S 1 -I 10 -W weka.classifiers.trees.J48 -- -U -M 2"));
+		assertSameProbabilities(bagging);
+	}
+
+	@Test
+	public void testPrunedTree() throws Exception {
+		assertSameProbabilities(new J48());
+	}
+
+	@Test
+	public void testUnsupportedClassifiers() throws Exception {
+		J48 laplace = new J48();
+		laplace.setUseLaplace(true);
+		laplace.buildClassifier(train);
+		assertNull(CompiledTreeEnsemble.compile(laplace, train));
+
+		Instances numeric = newData("numeric", 500, false);
+		fill(numeric, 500, new Random(42));
+		Bagging bagging = new Bagging();
+		bagging.setOptions(Utils.splitOptions("-P 100 -S 1 -I 10 -W weka.classifiers.trees.M5P -- -U -M 7.0"));
+		bagging.buildClassifier(numeric);
+		assertNull(CompiledTreeEnsemble.compile(bagging, numeric));
+	}
+}
@@ -0,0 +1,126 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.entopix.maui.filters.MauiFilter;
+import com.entopix.maui.util.CountMinSketch;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.MauiDocument;
+import com.entopix.maui.util.StringIntMap;
+
+/**
+ * Checks the pruning of the global dictionary and the sketch of the
+ * document frequencies of pruned candidates.
+ */
+public class DictionaryPruningTest {
+
+	private static final String TRAIN_DIR = "src/test/resources/data/automatic_tagging/train";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<MauiDocument> trainingDocs;
+
+	private StringIntMap allFrequencies;
+
+	@Before
+	public void buildFullModel() throws Exception {
+		trainingDocs = DataLoader.loadTestDocuments(TRAIN_DIR);
+		allFrequencies = newModelBuilder().buildModel(trainingDocs).getDocumentFrequencies();
+	}
+
+	private MauiModelBuilder newModelBuilder() {
+		MauiModelBuilder modelBuilder = new MauiModelBuilder();
+		modelBuilder.minNumOccur = 2;
+		return modelBuilder;
+	}
+
+	@Test
+	public void testMinDocumentFrequency() throws Exception {
+		MauiModelBuilder modelBuilder = newModelBuilder();
+		modelBuilder.minDocumentFrequency = 2;
+		MauiFilter model = modelBuilder.buildModel(trainingDocs);
+		StringIntMap frequencies = model.getDocumentFrequencies();
+		assertNull(model.getDocumentFrequencySketch());
+
+		int numFrequent = 0;
+		for (String candidate : allFrequencies.keys()) {
+			int frequency = allFrequencies.get(candidate);
+			if (frequency >= 2) {
+				numFrequent++;
+				assertEquals(candidate, frequency, frequencies.get(candidate));
+			} else {
+				assertFalse(candidate, frequencies.containsKey(candidate));
+			}
+		}
+		assertEquals(numFrequent, frequencies.size());
+		assertTrue(numFrequent < allFrequencies.size());
+	}
+
+	@Test
+	public void testMaxDictionarySize() throws Exception {
+		MauiModelBuilder modelBuilder = newModelBuilder();
+		modelBuilder.maxDictionarySize = 100;
+		StringIntMap frequencies = modelBuilder.buildModel(trainingDocs).getDocumentFrequencies();
+		assertEquals(100, frequencies.size());
+
+		int minKept = Integer.MAX_VALUE;
+		for (String candidate : frequencies.keys()) {
+			minKept = Math.min(minKept, frequencies.get(candidate));
+		}
+		for (String candidate : allFrequencies.keys()) {
+			if (!frequencies.containsKey(candidate)) {
+				assertTrue(candidate, allFrequencies.get(candidate) <= minKept);
+			}
+		}
+	}
+
+	@Test
+	public void testSketch() throws Exception {
+		MauiModelBuilder modelBuilder = newModelBuilder();
+		modelBuilder.minDocumentFrequency = 2;
+		modelBuilder.sketchWidth = 512;
+		modelBuilder.modelName = new File(folder.getRoot(), "model").getPath();
+		MauiFilter model = modelBuilder.buildModel(trainingDocs);
+		CountMinSketch sketch = model.getDocumentFrequencySketch();
+		assertNotNull(sketch);
+
+		// estimates never fall below the true document frequencies and
+		// rarely exceed them by more than the error bound
+		int numPruned = 0;
+		int numBeyondBound = 0;
+		for (String candidate : allFrequencies.keys()) {
+			int frequency = allFrequencies.get(candidate);
+			if (frequency < 2) {
+				numPruned++;
+				int estimate = sketch.estimate(candidate);
+				assertTrue(candidate, estimate >= frequency);
+				if (estimate - frequency > sketch.getErrorBound()) {
+					numBeyondBound++;
+				}
+			}
+		}
+		assertEquals(numPruned, sketch.getTotal());
+		assertTrue(numBeyondBound <= 2 * sketch.getErrorProbability() * numPruned + 1);
+
+		// the sketch is saved with the model
+		modelBuilder.saveModel(model);
+		CountMinSketch loaded = DataLoader.loadModel(modelBuilder.modelName).getDocumentFrequencySketch();
+		assertEquals(sketch.getTotal(), loaded.getTotal());
+		for (String candidate : allFrequencies.keys()) {
+			assertEquals(candidate, sketch.estimate(candidate), loaded.estimate(candidate));
+		}
+	}
+}
@@ -1,15 +1,40 @@
 package com.entopix.maui.main;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.entopix.maui.filters.MauiFilter;
 import com.entopix.maui.filters.MauiFilter.MauiFilterException;
+import com.entopix.maui.filters.MauiPhraseFilter;
+import com.entopix.maui.filters.NumbersFilter;
+import com.entopix.maui.stemmers.PorterStemmer;
+import com.entopix.maui.stemmers.SremovalStemmer;
+import com.entopix.maui.stopwords.StopwordsFactory;
+import com.entopix.maui.util.DataLoader;
 import com.entopix.maui.util.Topic;
+import com.entopix.maui.vocab.Vocabulary;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 /**
  * Demonstrates how to use MauiWrapper,  <br>
  * a class which has methods
@@ -61,4 +86,229 @@ public class MauiWrapperTest {
 		}
 	}
 
+	@Test
+	public void testConcurrentExtraction() throws Exception {
+
+		String vocabularyName = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+		String modelName = "src/test/resources/data/models/test";
+		final String text = FileUtils.readFileToString(
+				new File("src/test/resources/data/term_assignment/test/w7540e.txt"));
+
+		Vocabulary vocabulary = loadVocabulary(vocabularyName);
+
+		final MauiWrapper mauiWrapper = new MauiWrapper(vocabulary, DataLoader.loadModel(modelName));
+		mauiWrapper.setModelParameters(vocabularyName, null, null, null);
+		MauiFilter model = mauiWrapper.getModel();
+
+		// Topics produced by the filter queue
+		model.input(makeInstance(text));
+		List<Topic> expected = new ArrayList<Topic>();
+		Instance inst;
+		while ((inst = model.output()) != null) {
+			double probability = inst.value(model.getProbabilityIndex());
+			if (expected.size() < 20 && probability > 0) {
+				expected.add(new Topic(inst.stringValue(model.getOutputFormIndex()),
+						vocabulary.getFormatedName(inst.stringValue(0)), probability));
+			}
+		}
+		model.batchFinished();
+		assertFalse(expected.isEmpty());
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<ArrayList<Topic>>> futures = new ArrayList<Future<ArrayList<Topic>>>();
+		for (int i = 0; i < 16; i++) {
+			futures.add(executor.submit(new Callable<ArrayList<Topic>>() {
+				public ArrayList<Topic> call() throws Exception {
+					return mauiWrapper.extractTopicsFromText(text, 20);
+				}
+			}));
+		}
+		executor.shutdown();
+
+		for (Future<ArrayList<Topic>> future : futures) {
+			ArrayList<Topic> topics = future.get();
+			assertEquals(expected.size(), topics.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getTitle(), topics.get(i).getTitle());
+				assertEquals(expected.get(i).getId(), topics.get(i).getId());
+				assertEquals(expected.get(i).getProbability(), topics.get(i).getProbability(), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testSwapDuringExtraction() throws Exception {
+
+		final String vocabularyName = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+		final String modelName = "src/test/resources/data/models/test";
+		final String text = FileUtils.readFileToString(
+				new File("src/test/resources/data/term_assignment/test/w7540e.txt"));
+
+		final MauiWrapper mauiWrapper = new MauiWrapper(modelName, vocabularyName, "skos");
+		mauiWrapper.setModelParameters(vocabularyName, null, null, null);
+		final ArrayList<Topic> expected = mauiWrapper.extractTopicsFromText(text, 20);
+		assertFalse(expected.isEmpty());
+		assertEquals(2, mauiWrapper.getVersion());
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<ArrayList<Topic>>> futures = new ArrayList<Future<ArrayList<Topic>>>();
+		for (int i = 0; i < 16; i++) {
+			futures.add(executor.submit(new Callable<ArrayList<Topic>>() {
+				public ArrayList<Topic> call() throws Exception {
+					return mauiWrapper.extractTopicsFromText(text, 20);
+				}
+			}));
+		}
+
+		// swaps in pre-loaded objects and reloads from files while extracting
+		Vocabulary vocabulary = loadVocabulary(vocabularyName);
+		MauiFilter model = DataLoader.loadModel(modelName);
+		assertEquals(3, mauiWrapper.swap(vocabulary, model));
+		assertTrue(mauiWrapper.getModel() == model);
+		assertTrue(mauiWrapper.getVocabulary() == vocabulary);
+		ExecutorService loader = Executors.newSingleThreadExecutor();
+		long version = mauiWrapper.reload(modelName, vocabularyName, "skos", loader).get();
+		loader.shutdown();
+		assertEquals(4, version);
+		assertEquals(4, mauiWrapper.getVersion());
+		assertFalse(mauiWrapper.getModel() == model);
+
+		for (int i = 0; i < 4; i++) {
+			futures.add(executor.submit(new Callable<ArrayList<Topic>>() {
+				public ArrayList<Topic> call() throws Exception {
+					return mauiWrapper.extractTopicsFromText(text, 20);
+				}
+			}));
+		}
+		executor.shutdown();
+
+		for (Future<ArrayList<Topic>> future : futures) {
+			ArrayList<Topic> topics = future.get();
+			assertEquals(expected.size(), topics.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getTitle(), topics.get(i).getTitle());
+				assertEquals(expected.get(i).getId(), topics.get(i).getId());
+				assertEquals(expected.get(i).getProbability(), topics.get(i).getProbability(), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testSetModelParametersDuringExtraction() throws Exception {
+
+		final String vocabularyName = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+		final String text = FileUtils.readFileToString(
+				new File("src/test/resources/data/term_assignment/test/w7540e.txt"));
+
+		final MauiWrapper mauiWrapper = new MauiWrapper(loadVocabulary(vocabularyName),
+				DataLoader.loadModel("src/test/resources/data/models/test"));
+		mauiWrapper.setModelParameters(vocabularyName, null, null, null);
+		final MauiFilter model = mauiWrapper.getModel();
+		final List<Topic> expected = model.extractTopics(text, null, 20, 0);
+		assertFalse(expected.isEmpty());
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<List<Topic>>> futures = new ArrayList<Future<List<Topic>>>();
+		for (int i = 0; i < 16; i++) {
+			futures.add(executor.submit(new Callable<List<Topic>>() {
+				public List<Topic> call() throws Exception {
+					return model.extractTopics(text, null, 20, 0);
+				}
+			}));
+		}
+
+		// other parameters configure a copy, the model in use is unchanged
+		mauiWrapper.setModelParameters(vocabularyName, new PorterStemmer(), null, null);
+		assertEquals(3, mauiWrapper.getVersion());
+		assertFalse(mauiWrapper.getModel() == model);
+		futures.add(executor.submit(new Callable<List<Topic>>() {
+			public List<Topic> call() throws Exception {
+				return model.extractTopics(text, null, 20, 0);
+			}
+		}));
+		executor.shutdown();
+
+		for (Future<List<Topic>> future : futures) {
+			List<Topic> topics = future.get();
+			assertEquals(expected.size(), topics.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getId(), topics.get(i).getId());
+				assertEquals(expected.get(i).getProbability(), topics.get(i).getProbability(), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testOutputFormatDoesNotGrow() throws Exception {
+
+		String vocabularyName = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+		MauiWrapper mauiWrapper = new MauiWrapper(loadVocabulary(vocabularyName),
+				DataLoader.loadModel("src/test/resources/data/models/test"));
+		mauiWrapper.setModelParameters(vocabularyName, null, null, null);
+		MauiFilter model = mauiWrapper.getModel();
+		String[] texts = {
+				FileUtils.readFileToString(new File("src/test/resources/data/term_assignment/test/w7540e.txt")),
+				FileUtils.readFileToString(new File("src/test/resources/data/term_assignment/test/w7541e.txt"))
+		};
+
+		// only the candidates of the last document are kept
+		for (int i = 0; i < 4; i++) {
+			model.input(makeInstance(texts[i % 2]));
+			int numCandidates = 0;
+			while (model.output() != null) {
+				numCandidates++;
+			}
+			model.batchFinished();
+			// Weka keeps one placeholder value in a string free structure
+			assertTrue(model.getOutputFormat().attribute(0).numValues() <= numCandidates + 1);
+		}
+
+		// the filters that prepare the documents keep only the strings of
+		// the document in the current batch
+		MauiPhraseFilter phraseFilter = new MauiPhraseFilter();
+		phraseFilter.setAttributeIndicesArray(new int[] { 1 });
+		phraseFilter.setInputFormat(makeInstance(texts[0]).dataset());
+		NumbersFilter numbersFilter = new NumbersFilter();
+		numbersFilter.setInputFormat(phraseFilter.getOutputFormat());
+		for (int i = 0; i < 4; i++) {
+			phraseFilter.input(makeInstance(texts[i % 2]));
+			phraseFilter.batchFinished();
+			Instance phrases = phraseFilter.output();
+			assertNull(phraseFilter.output());
+			numbersFilter.input(phrases);
+			numbersFilter.batchFinished();
+			Instance numbers = numbersFilter.output();
+			assertNull(numbersFilter.output());
+			assertFalse(numbers.stringValue(1).isEmpty());
+
+			Instances[] formats = { phraseFilter.getOutputFormat(), numbersFilter.getOutputFormat() };
+			for (Instances format : formats) {
+				for (int j = 0; j < format.numAttributes(); j++) {
+					assertTrue(format.attribute(j).numValues() <= 2);
+				}
+			}
+		}
+	}
+
+	private Vocabulary loadVocabulary(String vocabularyName) {
+		Vocabulary vocabulary = VocabularyAssert.newVocabulary("en", new SremovalStemmer(),
+				StopwordsFactory.makeStopwords("en"));
+		vocabulary.initializeVocabulary(vocabularyName, "skos");
+		return vocabulary;
+	}
+
+	private Instance makeInstance(String text) {
+		FastVector atts = new FastVector(3);
+		atts.addElement(new Attribute("filename", (FastVector) null));
+		atts.addElement(new Attribute("doc", (FastVector) null));
+		atts.addElement(new Attribute("keyphrases", (FastVector) null));
+		Instances data = new Instances("keyphrase_training_data", atts, 0);
+		double[] newInst = new double[3];
+		newInst[0] = data.attribute(0).addStringValue("inputFile");
+		newInst[1] = data.attribute(1).addStringValue(text);
+		newInst[2] = Instance.missingValue();
+		data.add(new Instance(1.0, newInst));
+		return data.instance(0);
+	}
+
 }
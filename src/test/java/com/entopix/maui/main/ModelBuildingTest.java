@@ -0,0 +1,179 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.entopix.maui.filters.MauiFilter;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.MauiDocument;
+import com.entopix.maui.util.MauiTopics;
+import com.entopix.maui.util.StringIntMap;
+import com.entopix.maui.util.Topic;
+
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+
+/**
+ * Checks that building a model on several threads, or from documents
+ * streamed from disk, gives the same model as building it sequentially
+ * from documents in memory.
+ */
+public class ModelBuildingTest {
+
+	private static final String TRAIN_DIR = "src/test/resources/data/automatic_tagging/train";
+
+	private static final String TEST_DIR = "src/test/resources/data/automatic_tagging/test";
+
+	private static List<MauiDocument> testDocs;
+
+	@BeforeClass
+	public static void loadTestDocuments() throws Exception {
+		testDocs = DataLoader.loadTestDocuments(TEST_DIR);
+	}
+
+	private static MauiModelBuilder newModelBuilder(int numThreads) {
+		MauiModelBuilder modelBuilder = new MauiModelBuilder();
+		modelBuilder.setBasicFeatures(true);
+		modelBuilder.setKeyphrasenessFeature(true);
+		modelBuilder.setFrequencyFeatures(true);
+		modelBuilder.setPositionsFeatures(true);
+		modelBuilder.setLengthFeature(true);
+		modelBuilder.setThesaurusFeatures(true);
+		modelBuilder.minNumOccur = 2;
+		modelBuilder.numThreads = numThreads;
+		return modelBuilder;
+	}
+
+	private static MauiFilter buildModel(MauiModelBuilder modelBuilder, boolean streaming) throws Exception {
+		if (streaming) {
+			return modelBuilder.buildModelStreaming(DataLoader.streamDocuments(TRAIN_DIR));
+		}
+		return modelBuilder.buildModel(DataLoader.loadTestDocuments(TRAIN_DIR));
+	}
+
+	/**
+	 * Builds a model with the given number of threads and checks that it
+	 * has the same document frequencies as the expected model and extracts
+	 * the same topics from the test documents.
+	 */
+	private static void assertSameModel(MauiFilter expected, int numThreads, boolean streaming) throws Exception {
+		MauiFilter actual = buildModel(newModelBuilder(numThreads), streaming);
+
+		StringIntMap expectedFrequencies = expected.getDocumentFrequencies();
+		StringIntMap actualFrequencies = actual.getDocumentFrequencies();
+		assertTrue(expectedFrequencies.size() > 0);
+		assertEquals(expectedFrequencies.size(), actualFrequencies.size());
+		for (String candidate : expectedFrequencies.keys()) {
+			assertEquals(candidate, expectedFrequencies.get(candidate), actualFrequencies.get(candidate));
+		}
+
+		assertSameTopics(extractTopics(expected), extractTopics(actual));
+	}
+
+	private static List<MauiTopics> extractTopics(MauiFilter model) throws Exception {
+		MauiTopicExtractor topicExtractor = new MauiTopicExtractor();
+		topicExtractor.topicsPerDocument = 10;
+		topicExtractor.setModel(model);
+		return topicExtractor.extractTopics(testDocs);
+	}
+
+	static void assertSameTopics(List<MauiTopics> expected, List<MauiTopics> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			List<Topic> expectedTopics = expected.get(i).getTopics();
+			List<Topic> actualTopics = actual.get(i).getTopics();
+			assertEquals(expected.get(i).getFilePath(), actual.get(i).getFilePath());
+			assertEquals(expectedTopics.size(), actualTopics.size());
+			for (int j = 0; j < expectedTopics.size(); j++) {
+				assertEquals(expectedTopics.get(j).getTitle(), actualTopics.get(j).getTitle());
+				assertEquals(expectedTopics.get(j).getProbability(), actualTopics.get(j).getProbability(), 0.0);
+				assertEquals(expectedTopics.get(j).isCorrect(), actualTopics.get(j).isCorrect());
+			}
+		}
+	}
+
+	/**
+	 * Checks that a model built with several threads is the same as one
+	 * built sequentially.
+	 */
+	@Test
+	public void parallelModelBuildingTest() throws Exception {
+		MauiFilter expected = buildModel(newModelBuilder(1), false);
+		assertSameModel(expected, 4, false);
+	}
+
+	/**
+	 * Checks that a model built in two passes over documents read from disk
+	 * is the same as one built from documents in memory.
+	 */
+	@Test
+	public void streamingModelBuildingTest() throws Exception {
+		MauiFilter expected = buildModel(newModelBuilder(1), false);
+		assertSameModel(expected, 1, true);
+		assertSameModel(expected, 4, true);
+	}
+
+	/**
+	 * A J48 tree that keeps a copy of the data it was trained on.
+	 */
+	private static class RecordingJ48 extends J48 {
+
+		private static final long serialVersionUID = 1L;
+
+		Instances trainingData;
+
+		@Override
+		public void buildClassifier(Instances data) throws Exception {
+			trainingData = new Instances(data);
+			super.buildClassifier(data);
+		}
+	}
+
+	/**
+	 * Checks that computing the features of the training documents on
+	 * several threads gives the same classifier data, row by row and in the
+	 * same order, as computing them sequentially, when the documents are in
+	 * memory and when they are streamed.
+	 */
+	@Test
+	public void parallelFeatureComputationTest() throws Exception {
+		for (boolean streaming : new boolean[] {false, true}) {
+			List<Instances> trainingData = new ArrayList<Instances>();
+			for (int numThreads : new int[] {1, 4}) {
+				MauiModelBuilder modelBuilder = newModelBuilder(numThreads);
+				RecordingJ48 classifier = new RecordingJ48();
+				modelBuilder.setClassifier(classifier);
+				buildModel(modelBuilder, streaming);
+				trainingData.add(classifier.trainingData);
+			}
+
+			Instances expected = trainingData.get(0);
+			Instances actual = trainingData.get(1);
+			assertTrue(expected.numInstances() > 0);
+			assertEquals(expected.numInstances(), actual.numInstances());
+			for (int i = 0; i < expected.numInstances(); i++) {
+				assertEquals(expected.instance(i).weight(), actual.instance(i).weight(), 0.0);
+				assertArrayEquals(expected.instance(i).toDoubleArray(), actual.instance(i).toDoubleArray(), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Checks that building a model leaves no training instances behind in
+	 * the output queue of the filter.
+	 */
+	@Test
+	public void trainingOnlyModelBuildingTest() throws Exception {
+		MauiFilter mauiFilter = buildModel(newModelBuilder(1), false);
+		assertEquals(0, mauiFilter.numPendingOutput());
+		assertNull(mauiFilter.output());
+	}
+}
@@ -0,0 +1,94 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.entopix.maui.filters.MauiFilter;
+import com.entopix.maui.filters.MauiModelFile;
+import com.entopix.maui.stemmers.SremovalStemmer;
+import com.entopix.maui.stopwords.StopwordsFactory;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.StringIntMap;
+import com.entopix.maui.util.Topic;
+import com.entopix.maui.vocab.Vocabulary;
+
+/**
+ * Checks that a model converted from Java serialization to the format of
+ * MauiModelFile extracts the same topics.
+ */
+public class ModelFileTest {
+
+	private static final String MODEL_PATH = "src/test/resources/data/models/test";
+
+	private static final String VOCABULARY_PATH = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static boolean isModelFile(File file) throws Exception {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return MauiModelFile.isModelFile(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testConvertedModel() throws Exception {
+		assertFalse(isModelFile(new File(MODEL_PATH)));
+		MauiFilter legacy = DataLoader.loadModel(MODEL_PATH);
+
+		File modelFile = folder.newFile("model");
+		OutputStream out = new FileOutputStream(modelFile);
+		try {
+			MauiModelFile.write(legacy, out);
+		} finally {
+			out.close();
+		}
+		assertTrue(isModelFile(modelFile));
+		assertTrue(modelFile.length() < new File(MODEL_PATH).length());
+
+		MauiFilter converted = DataLoader.loadModel(modelFile.getPath());
+		StringIntMap legacyFrequencies = legacy.getDocumentFrequencies();
+		StringIntMap convertedFrequencies = converted.getDocumentFrequencies();
+		assertEquals(legacyFrequencies.size(), convertedFrequencies.size());
+		for (String key : legacyFrequencies.keys()) {
+			assertEquals(key, legacyFrequencies.get(key), convertedFrequencies.get(key));
+		}
+
+		Vocabulary vocabulary = new Vocabulary();
+		vocabulary.setStemmer(new SremovalStemmer());
+		vocabulary.setLanguage("en");
+		vocabulary.setStopwords(StopwordsFactory.makeStopwords("en"));
+		vocabulary.initializeVocabulary(VOCABULARY_PATH, "skos");
+
+		String text = FileUtils.readFileToString(new File("src/test/resources/data/term_assignment/test/w7540e.txt"));
+		MauiWrapper legacyWrapper = new MauiWrapper(vocabulary, legacy);
+		legacyWrapper.setModelParameters(VOCABULARY_PATH, null, null, null);
+		MauiWrapper convertedWrapper = new MauiWrapper(vocabulary, converted);
+		convertedWrapper.setModelParameters(VOCABULARY_PATH, null, null, null);
+
+		List<Topic> expected = legacyWrapper.extractTopicsFromText(text, 10);
+		List<Topic> actual = convertedWrapper.extractTopicsFromText(text, 10);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getId(), actual.get(i).getId());
+			assertEquals(expected.get(i).getProbability(), actual.get(i).getProbability(), 0.0);
+		}
+	}
+}
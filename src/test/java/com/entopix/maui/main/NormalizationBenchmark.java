@@ -0,0 +1,85 @@
+package com.entopix.maui.main;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.entopix.maui.stemmers.PorterStemmer;
+import com.entopix.maui.stopwords.StopwordsEnglish;
+import com.entopix.maui.vocab.Vocabulary;
+
+/**
+ * Compares the speed of Vocabulary.normalizePhrase with the regex and
+ * concatenation based implementation it replaced, on the labels of
+ * agrovoc_sample and the same labels with qualifiers. It is not part of the
+ * unit tests, run it with:
+ *
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:`cat cp.txt`
+ *     com.entopix.maui.main.NormalizationBenchmark
+ *
+ * An optional argument gives the number of rounds.
+ */
+public class NormalizationBenchmark {
+
+	private static final String VOCABULARY = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+
+	public static void main(String[] args) throws Exception {
+		int numRounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+		List<String> labels = NormalizationTest.loadLabels(VOCABULARY);
+		int numLabels = labels.size();
+		for (int i = 0; i < numLabels; i++) {
+			labels.add(labels.get(i) + " (qualifier)");
+		}
+		// each round normalizes about 100,000 labels
+		String[] phrases = new String[labels.size() * Math.max(1, 100000 / labels.size())];
+		for (int i = 0; i < phrases.length; i++) {
+			phrases[i] = labels.get(i % labels.size());
+		}
+
+		Vocabulary vocabulary = new Vocabulary();
+		vocabulary.setStemmer(new PorterStemmer());
+		vocabulary.setStopwords(new StopwordsEnglish());
+		vocabulary.setVocabularyName("agrovoc");
+		NormalizationTest reference = new NormalizationTest();
+
+		// the first rounds warm up the JIT compiler and are not reported
+		int numWarmUp = Math.max(1, numRounds / 4);
+		long[] referenceTimes = new long[numRounds];
+		long[] times = new long[numRounds];
+		int check = 0;
+		for (int round = -numWarmUp; round < numRounds; round++) {
+			long start = System.nanoTime();
+			for (String phrase : phrases) {
+				check += reference.referenceNormalizePhrase(phrase).length();
+			}
+			long middle = System.nanoTime();
+			for (String phrase : phrases) {
+				check -= vocabulary.normalizePhrase(phrase).length();
+			}
+			long end = System.nanoTime();
+			if (round >= 0) {
+				referenceTimes[round] = middle - start;
+				times[round] = end - middle;
+			}
+		}
+		if (check != 0) {
+			throw new IllegalStateException("The implementations normalize differently");
+		}
+
+		System.out.println(labels.size() + " labels, normalized " + phrases.length / labels.size()
+				+ " times in each of " + numRounds + " rounds");
+		System.out.println("previous normalizePhrase: " + report(referenceTimes, phrases.length));
+		System.out.println("normalizePhrase:          " + report(times, phrases.length));
+	}
+
+	/**
+	 * Returns the median and the fastest time per label of the rounds.
+	 */
+	private static String report(long[] times, int numLabels) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return String.format("median %.0f ns, fastest %.0f ns per label",
+				(double) sorted[sorted.length / 2] / numLabels, (double) sorted[0] / numLabels);
+	}
+}
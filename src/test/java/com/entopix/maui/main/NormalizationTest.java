@@ -0,0 +1,162 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.junit.Test;
+
+import com.entopix.maui.stemmers.PorterStemmer;
+import com.entopix.maui.stemmers.Stemmer;
+import com.entopix.maui.stopwords.Stopwords;
+import com.entopix.maui.stopwords.StopwordsEnglish;
+import com.entopix.maui.vocab.Vocabulary;
+
+/**
+ * Compares Vocabulary.normalizePhrase with the regex and concatenation
+ * based implementation it replaced, on the labels of agrovoc_sample.
+ */
+public class NormalizationTest {
+
+	private Stemmer stemmer = new PorterStemmer();
+
+	private Stopwords stopwords = new StopwordsEnglish();
+
+	@Test
+	public void testNormalizePhrase() throws IOException {
+
+		List<String> labels = loadLabels("src/test/resources/data/vocabularies/agrovoc_sample.rdf");
+		int numLabels = labels.size();
+		for (int i = 0; i < numLabels; i++) {
+			String label = labels.get(i);
+			labels.add(label + " (qualifier)");
+			labels.add(label + "  (a) b (c)");
+			labels.add("  " + label.toUpperCase() + ". & *" + label + ":");
+			labels.add(label + "-");
+		}
+		labels.add("FAO");
+		labels.add("the (");
+		labels.add("(qualifier)");
+		labels.add("soil \t(qualifier)");
+		labels.add("soil (a\nb) water (c)");
+		labels.add("soil (a)\n(b)");
+		labels.add("soil (qualifier)\n");
+		labels.add("soil (qualifier)\r\n");
+		labels.add("soil (qualifier)\u2028");
+		labels.add("soil \n (qualifier)");
+		labels.add("soil (a) water");
+
+		Vocabulary vocabulary = new Vocabulary();
+		vocabulary.setStemmer(stemmer);
+		vocabulary.setStopwords(stopwords);
+		vocabulary.setVocabularyName("agrovoc");
+
+		for (String label : labels) {
+			assertEquals(label, referenceNormalizePhrase(label), vocabulary.normalizePhrase(label));
+		}
+	}
+
+	static List<String> loadLabels(String fileName) throws IOException {
+		Model model = ModelFactory.createDefaultModel();
+		InputStream stream = new FileInputStream(fileName);
+		try {
+			model.read(new InputStreamReader(stream, "UTF-8"), "");
+		} finally {
+			stream.close();
+		}
+		List<String> labels = new ArrayList<String>();
+		StmtIterator iter = model.listStatements();
+		while (iter.hasNext()) {
+			RDFNode object = iter.nextStatement().getObject();
+			if (object.isLiteral()) {
+				labels.add(object.asLiteral().getString());
+			}
+		}
+		assertEquals(false, labels.isEmpty());
+		return labels;
+	}
+
+	/**
+	 * The previous implementation of normalizePhrase, with the
+	 * default settings of Vocabulary
+	 */
+	String referenceNormalizePhrase(String phrase) {
+
+		String orig = phrase;
+		if (orig.endsWith("-") || orig.endsWith(".")) {
+			return orig;
+		}
+		phrase = phrase.replaceAll("\\s+\\(.*\\)$", "");
+		StringBuilder result = new StringBuilder();
+		char prev = ' ';
+		int i = 0;
+		while (i < phrase.length()) {
+			char c = phrase.charAt(i);
+			if (c == '&' || c == '.' || c == '.') {
+				c = ' ';
+			}
+			if (c == '*' || c == ':') {
+				prev = c;
+				i++;
+				continue;
+			}
+			if (c != ' ' || prev != ' ') {
+				result.append(c);
+			}
+			prev = c;
+			i++;
+		}
+
+		phrase = result.toString().trim();
+
+		int lower = 0;
+		int upper = 0;
+		for (char p : phrase.toCharArray()) {
+			if (Character.isLowerCase(p)) {
+				lower++;
+			}
+			if (Character.isUpperCase(p)) {
+				upper++;
+			}
+		}
+		if (!(upper > lower && upper < 5)) {
+			phrase = phrase.toLowerCase();
+		}
+
+		phrase = referencePseudoPhrase(phrase);
+		if (phrase.equals("")) {
+			return result.toString();
+		} else {
+			return phrase;
+		}
+	}
+
+	private String referencePseudoPhrase(String str) {
+		String result = "";
+		String[] words = str.split(" ");
+		Arrays.sort(words);
+		for (String word : words) {
+			if (stopwords.isStopword(word)) {
+				continue;
+			}
+			int apostr = word.indexOf('\'');
+			if (apostr != -1 && apostr == word.length() - 2) {
+				word = word.substring(0, apostr);
+			}
+			word = stemmer.stem(word);
+			result += word + " ";
+		}
+		return result.trim();
+	}
+
+}
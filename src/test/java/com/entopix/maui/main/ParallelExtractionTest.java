@@ -0,0 +1,59 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.entopix.maui.filters.MauiFilter;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.MauiDocument;
+import com.entopix.maui.util.MauiTopics;
+
+/**
+ * Checks that extracting topics on several threads gives the same topics,
+ * in the same order, as extracting them sequentially.
+ */
+public class ParallelExtractionTest {
+
+	private static void assertSameParallelTopics(MauiTopicExtractor topicExtractor, MauiFilter model,
+			String testDir) throws Exception {
+		// only models with document frequencies are applied in parallel
+		assertNotNull(model.getDocumentFrequencies());
+		topicExtractor.topicsPerDocument = 10;
+		topicExtractor.setTopicProbability(0.0);
+		List<MauiDocument> testDocs = DataLoader.loadTestDocuments(testDir);
+
+		topicExtractor.numThreads = 1;
+		List<MauiTopics> expected = topicExtractor.extractTopics(testDocs);
+		assertFalse(expected.isEmpty());
+		topicExtractor.numThreads = 4;
+		ModelBuildingTest.assertSameTopics(expected, topicExtractor.extractTopics(testDocs));
+	}
+
+	@Test
+	public void testAutomaticTagging() throws Exception {
+		MauiModelBuilder modelBuilder = new MauiModelBuilder();
+		modelBuilder.minNumOccur = 2;
+
+		MauiFilter model = modelBuilder.buildModel(
+				DataLoader.loadTestDocuments("src/test/resources/data/automatic_tagging/train"));
+
+		MauiTopicExtractor topicExtractor = new MauiTopicExtractor();
+		topicExtractor.setModel(model);
+		assertSameParallelTopics(topicExtractor, model, "src/test/resources/data/automatic_tagging/test");
+	}
+
+	@Test
+	public void testTermAssignment() throws Exception {
+		MauiTopicExtractor topicExtractor = new MauiTopicExtractor();
+		topicExtractor.modelName = "src/test/resources/data/models/test";
+		topicExtractor.vocabularyName = VocabularyAssert.AGROVOC_SAMPLE;
+		topicExtractor.vocabularyFormat = "skos";
+		topicExtractor.loadModel();
+		assertSameParallelTopics(topicExtractor, DataLoader.loadModel(topicExtractor.modelName),
+				"src/test/resources/data/term_assignment/test");
+	}
+}
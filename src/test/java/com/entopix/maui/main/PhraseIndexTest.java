@@ -0,0 +1,138 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.entopix.maui.stemmers.PorterStemmer;
+import com.entopix.maui.vocab.PhraseIndex;
+import com.entopix.maui.vocab.Vocabulary;
+import com.entopix.maui.vocab.VocabularyStore_Compact;
+import com.entopix.maui.vocab.VocabularyStore_HT;
+
+/**
+ * Checks that the phrase index never rules out a phrase that has senses in
+ * agrovoc_sample.
+ */
+public class PhraseIndexTest {
+
+	private static final String VOCABULARY_PATH = VocabularyAssert.AGROVOC_SAMPLE;
+
+	private static final String TEST_DIR = "src/test/resources/data/term_assignment/test";
+
+	private static final int MAX_PHRASE_LENGTH = 5;
+
+	/** lines of words: the documents and the labels of the vocabulary */
+	private List<String[]> lines = new ArrayList<String[]>();
+
+	@Before
+	public void loadLines() throws IOException {
+		for (File file : new File(TEST_DIR).listFiles()) {
+			if (file.getName().endsWith(".txt")) {
+				for (String line : FileUtils.readLines(file, "UTF-8")) {
+					lines.add(line.trim().split("\\s+"));
+				}
+			}
+		}
+		for (String label : VocabularyAssert.labels(VocabularyAssert.readModel(VOCABULARY_PATH))) {
+			lines.add(label.trim().split("\\s+"));
+		}
+	}
+
+	private static Vocabulary loadVocabulary(@SuppressWarnings("rawtypes") Class storeClass, boolean stem) {
+		if (stem) {
+			return VocabularyAssert.loadVocabulary(storeClass, VOCABULARY_PATH, false);
+		}
+		Vocabulary vocabulary = VocabularyAssert.newVocabulary("en", null, null);
+		vocabulary.setVocabularyStoreClass(storeClass);
+		vocabulary.initializeVocabulary(VOCABULARY_PATH, "skos");
+		return vocabulary;
+	}
+
+	/**
+	 * Follows every phrase of every line like MauiFilter.getCandidates, and
+	 * checks that the phrases ruled out have no senses.
+	 */
+	private void assertNoMatchRuledOut(Vocabulary vocabulary) {
+		PhraseIndex index = vocabulary.getPhraseIndex();
+		index.resetCounts();
+		int numPhrases = 0;
+		int numStopped = 0;
+		int numLookedUp = 0;
+		int numMatched = 0;
+		for (String[] words : lines) {
+			PhraseIndex.Matcher matcher = index.newMatcher(MAX_PHRASE_LENGTH);
+			for (int last = 0; last < words.length; last++) {
+				matcher.addWord(words[last]);
+				matcher.startPhrase();
+				boolean dead = false;
+				for (int first = last; first > last - MAX_PHRASE_LENGTH && first >= 0; first--) {
+					StringBuilder phrase = new StringBuilder(words[first]);
+					for (int k = first + 1; k <= last; k++) {
+						phrase.append(' ').append(words[k]);
+					}
+					if (!dead && !matcher.extendPhrase()) {
+						dead = true;
+						numStopped++;
+					}
+					boolean mayMatch = !dead && matcher.mayMatch();
+					boolean hasSenses = !vocabulary.getSenses(phrase.toString()).isEmpty();
+					assertTrue(phrase.toString(), mayMatch || !hasSenses);
+					if (hasSenses) {
+						matcher.recordMatch();
+						numMatched++;
+					}
+					numPhrases++;
+					numLookedUp += mayMatch ? 1 : 0;
+				}
+			}
+		}
+		assertTrue(numMatched > 0);
+		assertTrue(numLookedUp < numPhrases / 2);
+		assertEquals(numStopped, index.getNumStopped());
+		assertEquals(numLookedUp, index.getNumLookedUp());
+		assertEquals(numMatched, index.getNumMatched());
+		assertTrue(index.getNumRuledOut() > 0);
+	}
+
+	@Test
+	public void testStemmedPhrases() {
+		assertNoMatchRuledOut(loadVocabulary(VocabularyStore_HT.class, true));
+	}
+
+	@Test
+	public void testUnstemmedPhrases() {
+		assertNoMatchRuledOut(loadVocabulary(VocabularyStore_Compact.class, false));
+	}
+
+	@Test
+	public void testIndexFollowsStore() {
+		Vocabulary vocabulary = loadVocabulary(VocabularyStore_Compact.class, true);
+		PhraseIndex index = vocabulary.getPhraseIndex();
+		assertSame(index, vocabulary.getPhraseIndex());
+
+		String term = "supercalifragilisticexpialidocious";
+		vocabulary.getVocabularyStore().addDescriptor("urn:isbn:1234567890", term);
+		vocabulary.getVocabularyStore().addSense(vocabulary.normalizePhrase(term), "urn:isbn:1234567890");
+		index = vocabulary.getPhraseIndex();
+		PhraseIndex.Matcher matcher = index.newMatcher(1);
+		matcher.addWord(term);
+		matcher.startPhrase();
+		assertTrue(matcher.extendPhrase());
+		assertTrue(matcher.mayMatch());
+		assertEquals(1, vocabulary.getSenses(term).size());
+
+		vocabulary.setStemmer(new PorterStemmer());
+		assertNotSame(index, vocabulary.getPhraseIndex());
+	}
+}
@@ -0,0 +1,179 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+
+import com.entopix.maui.stemmers.PorterStemmer;
+import com.entopix.maui.stemmers.Stemmer;
+import com.entopix.maui.stopwords.Stopwords;
+import com.entopix.maui.stopwords.StopwordsEnglish;
+import com.entopix.maui.vocab.Vocabulary;
+import com.entopix.maui.vocab.VocabularyStore;
+
+/**
+ * Creates vocabularies and compares their contents in the vocabulary tests.
+ */
+public final class VocabularyAssert {
+
+	public static final String AGROVOC_SAMPLE = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+
+	private VocabularyAssert() {
+	}
+
+	/**
+	 * Returns an English vocabulary with the Porter stemmer and the given
+	 * store class, not loaded yet.
+	 */
+	public static Vocabulary newVocabulary(@SuppressWarnings("rawtypes") Class storeClass) {
+		Vocabulary vocabulary = newVocabulary("en", new PorterStemmer(), new StopwordsEnglish());
+		vocabulary.setVocabularyStoreClass(storeClass);
+		return vocabulary;
+	}
+
+	/**
+	 * Returns a vocabulary in the given language, not loaded yet.
+	 */
+	public static Vocabulary newVocabulary(String language, Stemmer stemmer, Stopwords stopwords) {
+		Vocabulary vocabulary = new Vocabulary();
+		vocabulary.setLanguage(language);
+		vocabulary.setStemmer(stemmer);
+		vocabulary.setStopwords(stopwords);
+		return vocabulary;
+	}
+
+	/**
+	 * Loads a SKOS file into an English vocabulary with the Porter stemmer.
+	 */
+	public static Vocabulary loadVocabulary(@SuppressWarnings("rawtypes") Class storeClass, String path,
+			boolean serialize) {
+		Vocabulary vocabulary = newVocabulary(storeClass);
+		vocabulary.setSerialize(serialize);
+		vocabulary.initializeVocabulary(path, "skos");
+		assertEquals(storeClass, vocabulary.getVocabularyStore().getClass());
+		return vocabulary;
+	}
+
+	/**
+	 * Reads a SKOS file in RDF/XML, optionally gzipped, into a Jena Model.
+	 */
+	public static Model readModel(String path) throws IOException {
+		Model model = ModelFactory.createDefaultModel();
+		InputStream stream = new FileInputStream(path);
+		if (path.endsWith(".gz")) {
+			stream = new GZIPInputStream(stream);
+		}
+		try {
+			model.read(new InputStreamReader(stream, "UTF-8"), "");
+		} finally {
+			stream.close();
+		}
+		return model;
+	}
+
+	/**
+	 * Returns the URIs of the subjects of the models, each once.
+	 */
+	public static List<String> uris(Model... models) {
+		Set<String> uris = new LinkedHashSet<String>();
+		for (Model model : models) {
+			StmtIterator iter = model.listStatements();
+			while (iter.hasNext()) {
+				Resource subject = iter.nextStatement().getSubject();
+				if (subject.isURIResource()) {
+					uris.add(subject.getURI());
+				}
+			}
+		}
+		return new ArrayList<String>(uris);
+	}
+
+	/**
+	 * Returns the literals of the models, each once.
+	 */
+	public static List<String> labels(Model... models) {
+		Set<String> labels = new LinkedHashSet<String>();
+		for (Model model : models) {
+			StmtIterator iter = model.listStatements();
+			while (iter.hasNext()) {
+				Statement statement = iter.nextStatement();
+				RDFNode object = statement.getObject();
+				if (object.isLiteral()) {
+					labels.add(object.asLiteral().getString());
+				}
+			}
+		}
+		return new ArrayList<String>(labels);
+	}
+
+	public static List<String> sorted(List<String> list) {
+		if (list == null) {
+			return null;
+		}
+		List<String> result = new ArrayList<String>(list);
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Compares the vocabularies on every subject and literal of the model,
+	 * regardless of the order of related terms and senses.
+	 */
+	public static void assertSameContents(Model model, Vocabulary expected, Vocabulary actual) {
+		assertSameContents(expected, actual, uris(model), labels(model), false);
+	}
+
+	/**
+	 * Compares the sizes of the stores of the vocabularies, and the terms,
+	 * related terms and senses of the given URIs and labels.
+	 *
+	 * @param ordered whether related terms and senses have to be in the
+	 * same order, loaders that visit concepts in a different order only
+	 * give the same lists regardless of order
+	 */
+	public static void assertSameContents(Vocabulary expected, Vocabulary actual,
+			Collection<String> uris, Collection<String> labels, boolean ordered) {
+		VocabularyStore expectedStore = expected.getVocabularyStore();
+		VocabularyStore actualStore = actual.getVocabularyStore();
+		assertTrue(expectedStore.getNumTerms() > 0);
+		assertEquals(expectedStore.getNumTerms(), actualStore.getNumTerms());
+		assertEquals(expectedStore.getNumNonDescriptors(), actualStore.getNumNonDescriptors());
+		assertEquals(expectedStore.getNumRelatedTerms(), actualStore.getNumRelatedTerms());
+
+		for (String uri : uris) {
+			assertEquals(uri, expected.getTerm(uri), actual.getTerm(uri));
+			if (ordered) {
+				assertEquals(uri, expected.getRelated(uri), actual.getRelated(uri));
+			} else {
+				assertEquals(uri, sorted(expected.getRelated(uri)), sorted(actual.getRelated(uri)));
+			}
+		}
+		for (String label : labels) {
+			if (ordered) {
+				assertEquals(label, expected.getSenses(label), actual.getSenses(label));
+			} else {
+				assertEquals(label, sorted(expected.getSenses(label)), sorted(actual.getSenses(label)));
+			}
+			String phrase = expected.normalizePhrase(label);
+			assertEquals(label, expectedStore.getNumSenses(phrase), actualStore.getNumSenses(phrase));
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.entopix.maui.main;
+
+import static com.entopix.maui.main.VocabularyAssert.assertSameContents;
+import static com.entopix.maui.main.VocabularyAssert.labels;
+import static com.entopix.maui.main.VocabularyAssert.newVocabulary;
+import static com.entopix.maui.main.VocabularyAssert.readModel;
+import static com.entopix.maui.main.VocabularyAssert.uris;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.entopix.maui.stemmers.FrenchStemmer;
+import com.entopix.maui.stemmers.PorterStemmer;
+import com.entopix.maui.stopwords.StopwordsEnglish;
+import com.entopix.maui.stopwords.StopwordsFrench;
+import com.entopix.maui.vocab.Vocabulary;
+
+/**
+ * Checks that streaming a SKOS file into the vocabulary gives the same
+ * index as loading it into a Jena Model first.
+ */
+public class VocabularyLoadingTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testStreamingRDFXML() throws Exception {
+		String path = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+		Model model = readModel(path);
+
+		Vocabulary expected = newVocabulary("en", new PorterStemmer(), new StopwordsEnglish());
+		expected.initializeVocabulary(path, model);
+		Vocabulary actual = newVocabulary("en", new PorterStemmer(), new StopwordsEnglish());
+		actual.initializeVocabulary(path, "skos");
+		assertSameContents(model, expected, actual);
+	}
+
+	@Test
+	public void testStreamingGzippedRDFXML() throws Exception {
+		String path = "src/test/resources/data/vocabularies/agrovoc_fr.rdf.gz";
+		Model model = readModel(path);
+
+		Vocabulary expected = newVocabulary("fr", new FrenchStemmer(), new StopwordsFrench());
+		expected.initializeVocabulary(path, model);
+		Vocabulary actual = newVocabulary("fr", new FrenchStemmer(), new StopwordsFrench());
+		actual.initializeVocabulary(path, "skos");
+		assertSameContents(model, expected, actual);
+	}
+
+	@Test
+	public void testStreamingTurtleAndNTriples() throws Exception {
+		String path = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+		Model model = readModel(path);
+		Vocabulary expected = newVocabulary("en", new PorterStemmer(), new StopwordsEnglish());
+		expected.initializeVocabulary(path, model);
+
+		File turtle = new File(folder.getRoot(), "agrovoc_sample.ttl");
+		OutputStream out = new FileOutputStream(turtle);
+		try {
+			model.write(out, "TURTLE");
+		} finally {
+			out.close();
+		}
+		Vocabulary actual = newVocabulary("en", new PorterStemmer(), new StopwordsEnglish());
+		actual.initializeVocabulary(turtle.getPath(), "skos");
+		assertSameContents(model, expected, actual);
+
+		File nTriples = new File(folder.getRoot(), "agrovoc_sample.nt");
+		writeNTriples(model, nTriples);
+		actual = newVocabulary("en", new PorterStemmer(), new StopwordsEnglish());
+		actual.initializeVocabulary(nTriples.getPath(), "skos");
+		assertSameContents(model, expected, actual);
+	}
+
+	/**
+	 * The N-TRIPLE writer of jena-core adds a datatype to language tagged
+	 * literals, which is not valid N-Triples.
+	 */
+	private static void writeNTriples(Model model, File file) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			StmtIterator iter = model.listStatements();
+			while (iter.hasNext()) {
+				Statement statement = iter.nextStatement();
+				if (!statement.getSubject().isURIResource()) {
+					continue;
+				}
+				writer.write("<" + statement.getSubject().getURI() + "> <" + statement.getPredicate().getURI() + "> ");
+				RDFNode object = statement.getObject();
+				if (object.isURIResource()) {
+					writer.write("<" + object.asResource().getURI() + ">");
+				} else if (object.isLiteral()) {
+					String value = object.asLiteral().getLexicalForm().replace("\\", "\\\\")
+							.replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
+					writer.write("\"" + value + "\"");
+					if (!object.asLiteral().getLanguage().isEmpty()) {
+						writer.write("@" + object.asLiteral().getLanguage());
+					}
+				} else {
+					continue;
+				}
+				writer.write(" .\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testParallelLoading() throws Exception {
+		String path = "src/test/resources/data/vocabularies/agrovoc_fr.rdf.gz";
+		Model model = readModel(path);
+
+		Vocabulary expected = newVocabulary("fr", new FrenchStemmer(), new StopwordsFrench());
+		expected.initializeVocabulary(path, "skos");
+		Vocabulary actual = newVocabulary("fr", new FrenchStemmer(), new StopwordsFrench());
+		actual.setNumThreads(4);
+		actual.initializeVocabulary(path, "skos");
+		// The order of senses does not depend on the number of threads
+		assertSameContents(expected, actual, uris(model), labels(model), true);
+	}
+}
@@ -0,0 +1,112 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.jena.rdf.model.Model;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.entopix.maui.vocab.Vocabulary;
+import com.entopix.maui.vocab.VocabularyStore;
+import com.entopix.maui.vocab.VocabularyStore_Compact;
+import com.entopix.maui.vocab.VocabularyStore_HT;
+import com.entopix.maui.vocab.VocabularyStore_Mapped;
+
+/**
+ * Checks that the vocabulary store implementations return the same
+ * results on agrovoc_sample.
+ */
+public class VocabularyStoreTest {
+
+	private static final String VOCABULARY_PATH = VocabularyAssert.AGROVOC_SAMPLE;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<String> uris;
+
+	private List<String> labels;
+
+	@Before
+	public void loadSample() throws IOException {
+		Model model = VocabularyAssert.readModel(VOCABULARY_PATH);
+		uris = VocabularyAssert.uris(model);
+		labels = VocabularyAssert.labels(model);
+		uris.add("http://www.fao.org/aos/agrovoc#c_unknown");
+		uris.add("urn:isbn:1234567890");
+	}
+
+	private static Vocabulary loadVocabulary(@SuppressWarnings("rawtypes") Class storeClass) {
+		return VocabularyAssert.loadVocabulary(storeClass, VOCABULARY_PATH, false);
+	}
+
+	private void assertSameContents(Vocabulary expected, Vocabulary actual) {
+		VocabularyAssert.assertSameContents(expected, actual, uris, labels, true);
+	}
+
+	@Test
+	public void testCompactStore() throws Exception {
+		Vocabulary ht = loadVocabulary(VocabularyStore_HT.class);
+		Vocabulary compact = loadVocabulary(VocabularyStore_Compact.class);
+		assertSameContents(ht, compact);
+
+		// Serialization round trip
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(compact.getVocabularyStore());
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		compact.setVocabularyStore((VocabularyStore) in.readObject());
+		in.close();
+		assertSameContents(ht, compact);
+
+		// Additions after initialization
+		for (Vocabulary vocabulary : new Vocabulary[] { ht, compact }) {
+			VocabularyStore store = vocabulary.getVocabularyStore();
+			store.addDescriptor("urn:isbn:1234567890", "supercalifragilisticexpialidocious");
+			store.addSense(vocabulary.normalizePhrase("supercalifragilisticexpialidocious"), "urn:isbn:1234567890");
+			store.addSense("africa", "urn:isbn:1234567890");
+			store.addRelatedTerm("urn:isbn:1234567890", "http://www.fao.org/aos/agrovoc#c_165");
+			store.addRelatedTerm("urn:isbn:1234567890", "http://www.fao.org/aos/agrovoc#c_165");
+		}
+		labels.add("supercalifragilisticexpialidocious");
+		assertSameContents(ht, compact);
+		compact.getVocabularyStore().finishedInitialized();
+		assertSameContents(ht, compact);
+
+		assertNull(compact.getTerm("http://www.fao.org/aos/agrovoc#c_unknown"));
+	}
+
+	@Test
+	public void testMappedStore() throws Exception {
+		Vocabulary ht = loadVocabulary(VocabularyStore_HT.class);
+		File vocabularyFile = new File(folder.getRoot(), "agrovoc_sample.rdf");
+		Files.copy(new File(VOCABULARY_PATH).toPath(), vocabularyFile.toPath());
+
+		// Loads the SKOS file and writes the snapshot
+		Vocabulary loaded = VocabularyAssert.loadVocabulary(VocabularyStore_Mapped.class, vocabularyFile.getPath(), true);
+		assertFalse(((VocabularyStore_Mapped) loaded.getVocabularyStore()).isMapped());
+		assertSameContents(ht, loaded);
+
+		// Maps the snapshot written above
+		Vocabulary mapped = VocabularyAssert.loadVocabulary(VocabularyStore_Mapped.class, vocabularyFile.getPath(), true);
+		assertTrue(((VocabularyStore_Mapped) mapped.getVocabularyStore()).isMapped());
+		assertSameContents(ht, mapped);
+
+		assertNull(mapped.getTerm("http://www.fao.org/aos/agrovoc#c_unknown"));
+	}
+}
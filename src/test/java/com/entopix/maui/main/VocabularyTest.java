@@ -2,6 +2,13 @@ package com.entopix.maui.main;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -65,4 +72,39 @@ public class VocabularyTest {
 		assertEquals(uri, vocabulary.getSenses(term).get(0));
 	}
 
+	/*
+	 * 4. Test that lookups of unknown URIs return null and can run concurrently
+	 */
+	@Test
+	public void testConcurrentLookups() throws Exception {
+		final String uri = "http://www.fao.org/aos/agrovoc#c_165";
+		final String term = "Africa";
+		int numTerms = vocabulary.getVocabularyStore().getNumTerms();
+
+		assertNull(vocabulary.getTerm("http://www.fao.org/aos/agrovoc#c_unknown"));
+		assertNull(vocabulary.getRelated("urn:isbn:0000000000"));
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			results.add(executor.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					for (int i = 0; i < 1000; i++) {
+						if (vocabulary.getTerm(uri + "_" + thread + "_" + i) != null
+								|| !term.equals(vocabulary.getTerm(uri))
+								|| !uri.equals(vocabulary.getSenses(term).get(0))) {
+							return false;
+						}
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			assertTrue(result.get());
+		}
+		executor.shutdown();
+		assertEquals(numTerms, vocabulary.getVocabularyStore().getNumTerms());
+	}
 }
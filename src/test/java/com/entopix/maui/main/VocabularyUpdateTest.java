@@ -0,0 +1,274 @@
+package com.entopix.maui.main;
+
+import static com.entopix.maui.main.VocabularyAssert.newVocabulary;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.SKOS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.entopix.maui.filters.MauiFilter;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.MauiDocument;
+import com.entopix.maui.vocab.Vocabulary;
+import com.entopix.maui.vocab.VocabularyStore;
+import com.entopix.maui.vocab.VocabularyStore_Compact;
+import com.entopix.maui.vocab.VocabularyStore_HT;
+import com.entopix.maui.vocab.VocabularyStore_Mapped;
+
+/**
+ * Checks that applying a SKOS delta to a loaded vocabulary gives the same
+ * index as loading the updated thesaurus from scratch.
+ */
+public class VocabularyUpdateTest {
+
+	private static final String VOCABULARY_PATH = VocabularyAssert.AGROVOC_SAMPLE;
+
+	private static final String NS = "http://www.fao.org/aos/agrovoc#";
+
+	/** Deprecated by the delta, "Agriculture" */
+	private static final String DEPRECATED = NS + "c_203";
+
+	/** Relabeled by the delta, "Wood flour" */
+	private static final String RELABELED = NS + "c_8425";
+
+	/** Added by the delta */
+	private static final String ADDED = NS + "c_99999";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Model original;
+
+	private Model updated;
+
+	private File delta;
+
+	@Before
+	public void createDelta() throws IOException {
+		original = VocabularyAssert.readModel(VOCABULARY_PATH);
+
+		Model changes = ModelFactory.createDefaultModel();
+		changes.createResource(DEPRECATED).addLiteral(changes.createProperty(OWL.NS, "deprecated"), true);
+
+		Resource relabeled = changes.createResource(RELABELED, SKOS.Concept);
+		relabeled.addProperty(SKOS.prefLabel, "Wood powder", "en");
+		relabeled.addProperty(SKOS.altLabel, "Wood meal", "en");
+		relabeled.addProperty(SKOS.altLabel, "Sawdust flour", "en");
+		StmtIterator links = original.getResource(RELABELED).listProperties();
+		while (links.hasNext()) {
+			Statement statement = links.nextStatement();
+			if (statement.getObject().isURIResource() && !statement.getPredicate().equals(RDF.type)) {
+				relabeled.addProperty(statement.getPredicate(), changes.createResource(statement.getResource().getURI()));
+			}
+		}
+
+		Resource added = changes.createResource(ADDED, SKOS.Concept);
+		added.addProperty(SKOS.prefLabel, "Wood pellets", "en");
+		added.addProperty(SKOS.hiddenLabel, "Pellets", "en");
+		added.addProperty(SKOS.related, changes.createResource(RELABELED));
+
+		delta = new File(folder.getRoot(), "delta.ttl");
+		OutputStream out = new FileOutputStream(delta);
+		try {
+			changes.write(out, "TURTLE");
+		} finally {
+			out.close();
+		}
+
+		// the thesaurus after the update
+		updated = ModelFactory.createDefaultModel().add(original);
+		updated.removeAll(updated.getResource(DEPRECATED), null, null);
+		updated.removeAll(null, null, updated.getResource(DEPRECATED));
+		updated.removeAll(updated.getResource(RELABELED), null, null);
+		updated.add(changes.listStatements(null, null, (RDFNode) null).filterDrop(
+				s -> s.getSubject().getURI().equals(DEPRECATED)).toList());
+	}
+
+	private void assertSameContents(Vocabulary expected, Vocabulary actual) {
+		VocabularyAssert.assertSameContents(expected, actual, VocabularyAssert.uris(original, updated),
+				VocabularyAssert.labels(original, updated), false);
+	}
+
+	private void testUpdate(@SuppressWarnings("rawtypes") Class storeClass) throws Exception {
+		Vocabulary expected = newVocabulary(storeClass);
+		expected.initializeVocabulary(VOCABULARY_PATH, updated);
+
+		Vocabulary vocabulary = newVocabulary(storeClass);
+		vocabulary.initializeVocabulary(VOCABULARY_PATH, "skos");
+		vocabulary.updateFromSKOSFile(delta);
+		assertSameContents(expected, vocabulary);
+
+		assertNull(vocabulary.getTerm(DEPRECATED));
+		assertEquals("Wood powder", vocabulary.getTerm(RELABELED));
+		assertTrue(vocabulary.getSenses("Wood flour").isEmpty());
+		assertEquals(Collections.singletonList(ADDED), vocabulary.getSenses("pellets"));
+	}
+
+	@Test
+	public void testUpdateHT() throws Exception {
+		testUpdate(VocabularyStore_HT.class);
+	}
+
+	@Test
+	public void testUpdateCompact() throws Exception {
+		testUpdate(VocabularyStore_Compact.class);
+	}
+
+	/**
+	 * Updates a serialized HT store, whose new concepts must not take the
+	 * ids of those read back from the serialized file.
+	 */
+	@Test
+	public void testUpdateSerializedHT() throws Exception {
+		File vocabularyFile = new File(folder.getRoot(), "agrovoc_sample.rdf");
+		Files.copy(new File(VOCABULARY_PATH).toPath(), vocabularyFile.toPath());
+
+		Vocabulary expected = newVocabulary(VocabularyStore_HT.class);
+		expected.initializeVocabulary(VOCABULARY_PATH, updated);
+
+		// writes the serialized store
+		Vocabulary vocabulary = newVocabulary(VocabularyStore_HT.class);
+		vocabulary.setSerialize(true);
+		vocabulary.initializeVocabulary(vocabularyFile.getPath(), "skos");
+		File[] serialized = folder.getRoot().listFiles((dir, name) -> name.endsWith(".serialized"));
+		assertEquals(1, serialized.length);
+		long written = serialized[0].lastModified();
+
+		// updates the store read back from the serialized file
+		vocabulary = newVocabulary(VocabularyStore_HT.class);
+		vocabulary.setSerialize(true);
+		vocabulary.initializeVocabulary(vocabularyFile.getPath(), "skos");
+		assertEquals(written, serialized[0].lastModified());
+		vocabulary.updateFromSKOSFile(delta);
+		assertSameContents(expected, vocabulary);
+		assertEquals("Africa", vocabulary.getTerm(NS + "c_165"));
+		assertEquals(Collections.singletonList(ADDED), vocabulary.getSenses("pellets"));
+
+		// reads the updated store back
+		vocabulary = newVocabulary(VocabularyStore_HT.class);
+		vocabulary.setSerialize(true);
+		vocabulary.initializeVocabulary(vocabularyFile.getPath(), "skos");
+		assertSameContents(expected, vocabulary);
+	}
+
+	/**
+	 * Updates the vocabulary while other threads extract candidates and look
+	 * up the relabeled concept, which must see the vocabulary either before
+	 * or after the update. The store that was replaced must not change.
+	 */
+	@Test
+	public void testUpdateDuringExtraction() throws Exception {
+		final List<String> before = Collections.singletonList(RELABELED);
+		final List<String> after = Collections.emptyList();
+		final List<String> texts = new ArrayList<String>();
+		for (MauiDocument document : DataLoader.loadTestDocuments("src/test/resources/data/term_assignment/test")) {
+			texts.add(document.getTextContent());
+		}
+
+		for (Class<?> storeClass : new Class<?>[] { VocabularyStore_HT.class, VocabularyStore_Compact.class }) {
+			final Vocabulary vocabulary = newVocabulary(storeClass);
+			vocabulary.initializeVocabulary(VOCABULARY_PATH, "skos");
+			VocabularyStore original = vocabulary.getVocabularyStore();
+
+			final AtomicBoolean updating = new AtomicBoolean(true);
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+			try {
+				for (int t = 0; t < 4; t++) {
+					readers.add(executor.submit(() -> {
+						MauiFilter filter = new MauiFilter();
+						filter.setVocabularyName("agrovoc_sample.rdf");
+						filter.setVocabulary(vocabulary);
+						int numRounds = 0;
+						do {
+							for (String text : texts) {
+								assertFalse(filter.getCandidates(text).isEmpty());
+								List<String> senses = vocabulary.getSenses("Wood flour");
+								assertTrue(senses.toString(), senses.equals(before) || senses.equals(after));
+								String term = vocabulary.getTerm(RELABELED);
+								assertTrue(term, term.equals("Wood flour") || term.equals("Wood powder"));
+							}
+							numRounds++;
+						} while (updating.get());
+						return numRounds;
+					}));
+				}
+				for (int i = 0; i < 5; i++) {
+					vocabulary.updateFromSKOSFile(delta);
+				}
+			} finally {
+				updating.set(false);
+				executor.shutdown();
+			}
+			for (Future<Integer> reader : readers) {
+				assertTrue(reader.get() > 0);
+			}
+
+			assertEquals("Wood flour", original.getTerm(RELABELED));
+			assertEquals("Wood powder", vocabulary.getTerm(RELABELED));
+			assertEquals(after, vocabulary.getSenses("Wood flour"));
+			assertEquals(Collections.singletonList(ADDED), vocabulary.getSenses("pellets"));
+		}
+	}
+
+	@Test
+	public void testUpdateSnapshot() throws Exception {
+		File vocabularyFile = new File(folder.getRoot(), "agrovoc_sample.rdf");
+		Files.copy(new File(VOCABULARY_PATH).toPath(), vocabularyFile.toPath());
+
+		Vocabulary expected = newVocabulary(VocabularyStore_HT.class);
+		expected.initializeVocabulary(VOCABULARY_PATH, updated);
+
+		// writes the snapshot
+		Vocabulary vocabulary = newVocabulary(VocabularyStore_Mapped.class);
+		vocabulary.setSerialize(true);
+		vocabulary.initializeVocabulary(vocabularyFile.getPath(), "skos");
+
+		// updates the mapped snapshot
+		vocabulary = newVocabulary(VocabularyStore_Mapped.class);
+		vocabulary.setSerialize(true);
+		vocabulary.initializeVocabulary(vocabularyFile.getPath(), "skos");
+		VocabularyStore_Mapped mapped = (VocabularyStore_Mapped) vocabulary.getVocabularyStore();
+		assertTrue(mapped.isMapped());
+		vocabulary.updateFromSKOSFile(delta);
+		assertFalse(((VocabularyStore_Mapped) vocabulary.getVocabularyStore()).isMapped());
+		// the update is applied to a copy, the snapshot stays mapped
+		assertTrue(mapped.isMapped());
+		assertEquals("Wood flour", mapped.getTerm(RELABELED));
+		assertSameContents(expected, vocabulary);
+
+		// maps the updated snapshot
+		vocabulary = newVocabulary(VocabularyStore_Mapped.class);
+		vocabulary.setSerialize(true);
+		vocabulary.initializeVocabulary(vocabularyFile.getPath(), "skos");
+		assertTrue(((VocabularyStore_Mapped) vocabulary.getVocabularyStore()).isMapped());
+		assertSameContents(expected, vocabulary);
+	}
+}